@@ -0,0 +1,119 @@
+package com.wuetherich.osgi.ds.annotations.test.aggregated;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Collections;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentDescriptionAggregate;
+import com.wuetherich.osgi.ds.annotations.internal.util.BundleFiles;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks the aggregated component descriptions mode.
+ * </p>
+ */
+public class AggregatedComponentDescriptions_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		DsAnnotationPreferences.setAggregatedComponentDescriptionsEnabled(
+				getProject(), true);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+
+		// all components are written to a single file
+		IFile components = getProject().getFile("OSGI-INF/components.xml");
+		Assert.assertTrue(components.exists());
+		Assert.assertFalse(getProject().getFile("OSGI-INF/de.test.Test.xml")
+				.exists());
+		Assert.assertFalse(getProject().getFile(
+				"OSGI-INF/de.test.Test$Inner.xml").exists());
+
+		//
+		String xml = getContent(components);
+		Assert.assertTrue(xml.startsWith("<?xml"));
+		Assert.assertTrue(xml.indexOf("<components>") != -1);
+		Assert.assertTrue(xml.indexOf("class=\"de.test.Test\"") != -1);
+		Assert.assertTrue(xml.indexOf("class=\"de.test.Test$Inner\"") != -1);
+		Assert.assertEquals(1, count(xml, "name=\"named\""));
+
+		//
+		Assert.assertEquals(Collections
+				.singletonList("OSGI-INF/components.xml"), BundleFiles
+				.getManifestHeader(getContent(getProject().getFile(
+						"META-INF/MANIFEST.MF")),
+						Constants.BUNDLE_HEADER_SERVICE_COMPONENT));
+
+		// unchanged components are not rewritten
+		long modificationStamp = components.getModificationStamp();
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(modificationStamp,
+				components.getModificationStamp());
+
+		// a reloaded file keeps the components with an explicit name (the
+		// chunks are keyed by the component name)
+		ComponentDescriptionAggregate.discard(getProject());
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(xml, getContent(components));
+		Assert.assertEquals(1, count(getContent(components),
+				"name=\"named\""));
+
+		// a clean build restores the same file
+		getProject().build(IncrementalProjectBuilder.CLEAN_BUILD, null);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(xml, getContent(components));
+
+		// disabling the mode restores one file per component
+		DsAnnotationPreferences.setAggregatedComponentDescriptionsEnabled(
+				getProject(), false);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertFalse(components.exists());
+		Assert.assertTrue(getProject().getFile("OSGI-INF/de.test.Test.xml")
+				.exists());
+		Assert.assertTrue(getProject().getFile("OSGI-INF/named.xml").exists());
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default(
+				"de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test {\n"
+						+ "  @Component public static class Inner {}\n"
+						+ "  @Component(name = \"named\") public static class Named {}\n"
+						+ "}\n");
+	}
+
+	private static int count(String xml, String part) {
+		int result = 0;
+		for (int i = xml.indexOf(part); i != -1; i = xml.indexOf(part, i + 1)) {
+			result++;
+		}
+		return result;
+	}
+
+	private static String getContent(IFile file) throws Exception {
+		InputStream inputStream = file.getContents(true);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return new String(result.toByteArray(), "UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+}
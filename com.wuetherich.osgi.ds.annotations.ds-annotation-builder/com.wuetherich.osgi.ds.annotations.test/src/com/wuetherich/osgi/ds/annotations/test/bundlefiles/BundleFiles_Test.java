@@ -0,0 +1,89 @@
+package com.wuetherich.osgi.ds.annotations.test.bundlefiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.util.BundleFiles;
+
+/**
+ * <p>
+ * Checks the in-place editing of the manifest and the build properties.
+ * </p>
+ */
+public class BundleFiles_Test {
+
+	private static final String MANIFEST = "Manifest-Version: 1.0\r\n"
+			+ "Bundle-SymbolicName: test\r\n" + "Empty-Header: \r\n"
+			+ "Service-Component: OSGI-INF/a.xml,\r\n"
+			+ " OSGI-INF/b.xml\r\n" + "Bundle-Version: 1.0.0\r\n" + "\r\n"
+			+ "Name: test\r\n";
+
+	private static final String BUILD_PROPERTIES = "source.. = src/\n"
+			+ "output.. = bin/\n" + "bin.includes = META-INF/,\\\n"
+			+ "               .\n" + "# comment\n";
+
+	@Test
+	public void getManifestHeader() {
+		assertEquals(Arrays.asList("OSGI-INF/a.xml", "OSGI-INF/b.xml"),
+				BundleFiles.getManifestHeader(MANIFEST, "Service-Component"));
+		assertNull(BundleFiles.getManifestHeader(MANIFEST, "Name"));
+	}
+
+	@Test
+	public void unchangedManifest() {
+		assertSame(MANIFEST, BundleFiles.setManifestHeader(MANIFEST,
+				"Service-Component",
+				Arrays.asList("OSGI-INF/a.xml", "OSGI-INF/b.xml")));
+	}
+
+	@Test
+	public void replaceManifestHeader() {
+		assertEquals(MANIFEST.replace(
+				"OSGI-INF/a.xml,\r\n OSGI-INF/b.xml", "OSGI-INF/c.xml"),
+				BundleFiles.setManifestHeader(MANIFEST, "Service-Component",
+						Arrays.asList("OSGI-INF/c.xml")));
+	}
+
+	@Test
+	public void removeManifestHeader() {
+		assertEquals(MANIFEST.replace(
+				"Service-Component: OSGI-INF/a.xml,\r\n OSGI-INF/b.xml\r\n",
+				""), BundleFiles.setManifestHeader(MANIFEST,
+				"Service-Component", Collections.<String> emptyList()));
+	}
+
+	@Test
+	public void appendManifestHeader() {
+		assertEquals("Manifest-Version: 1.0\n"
+				+ "Service-Component: OSGI-INF/com.example.very.long.package.name.and.some.\n"
+				+ " more.Component.xml,\n" + " OSGI-INF/b.xml\n",
+				BundleFiles.setManifestHeader("Manifest-Version: 1.0\n",
+						"Service-Component", Arrays.asList(
+								"OSGI-INF/com.example.very.long.package.name.and.some.more.Component.xml",
+								"OSGI-INF/b.xml")));
+	}
+
+	@Test
+	public void addBinInclude() {
+		assertEquals("source.. = src/\n" + "output.. = bin/\n"
+				+ "bin.includes = META-INF/,\\\n" + "               .,\\\n"
+				+ "               OSGI-INF/\n" + "# comment\n",
+				BundleFiles.setBuildProperty(BUILD_PROPERTIES, "bin.includes",
+						Arrays.asList("META-INF/", ".", "OSGI-INF/")));
+	}
+
+	@Test
+	public void unchangedBuildProperties() {
+		assertEquals(Arrays.asList("META-INF/", "."),
+				BundleFiles.getBuildProperty(BUILD_PROPERTIES, "bin.includes"));
+		assertSame(BUILD_PROPERTIES, BundleFiles.setBuildProperty(
+				BUILD_PROPERTIES, "bin.includes",
+				Arrays.asList("META-INF/", ".")));
+	}
+}
@@ -0,0 +1,81 @@
+package com.wuetherich.osgi.ds.annotations.test.cancel;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that the source files that have not been processed by a canceled
+ * build are built by the next incremental build.
+ * </p>
+ */
+public class CanceledBuild_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+
+		// two new components in one resource delta
+		getProject().getWorkspace().run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				createComponent("Test2");
+				createComponent("Test3");
+			}
+		}, null);
+		final IFile test2 = getProject().getFile("OSGI-INF/de.test.Test2.xml");
+		final IFile test3 = getProject().getFile("OSGI-INF/de.test.Test3.xml");
+
+		// the build is canceled as soon as the first component description
+		// has been written
+		try {
+			getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD,
+					Constants.BUILDER_ID, null, new NullProgressMonitor() {
+						@Override
+						public boolean isCanceled() {
+							return test2.exists() || test3.exists();
+						}
+					});
+		} catch (OperationCanceledException e) {
+			// expected
+		}
+		Assert.assertFalse(test2.exists() && test3.exists());
+
+		// the next build delivers the complete delta again
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertTrue(test2.exists());
+		Assert.assertTrue(test3.exists());
+	}
+
+	private void createComponent(String name) throws CoreException {
+		try {
+			getProject().getFile("src/de/test/" + name + ".java").create(
+					new ByteArrayInputStream(("package de.test;\n"
+							+ "import org.osgi.service.component.annotations.Component;\n"
+							+ "@Component\npublic class " + name + " {}\n")
+							.getBytes("UTF-8")), true, null);
+		} catch (UnsupportedEncodingException e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default("de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test {}\n");
+	}
+}
@@ -0,0 +1,96 @@
+package com.wuetherich.osgi.ds.annotations.test.compact;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that the compact form and the formatted form of the same component
+ * are considered equal: switching the form only affects component
+ * descriptions that are written anyway.
+ * </p>
+ */
+public class CompactComponentDescriptions_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		IFile file = getProject().getFile("OSGI-INF/de.test.Test.xml");
+		String formatted = getContent(file);
+		Assert.assertTrue(formatted.indexOf("\n    <") != -1);
+
+		// enabling the compact form doesn't rewrite unchanged components
+		DsAnnotationPreferences.setCompactComponentDescriptionsEnabled(
+				getProject(), true);
+		long modificationStamp = file.getModificationStamp();
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(modificationStamp, file.getModificationStamp());
+
+		// a component description that is written anyway has the compact form
+		// (and the same fingerprint)
+		file.delete(true, null);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		String compact = getContent(file);
+		Assert.assertTrue(compact.length() < formatted.length());
+		Assert.assertTrue(compact.indexOf("\n    <") == -1);
+		Assert.assertEquals(getHeader(formatted), getHeader(compact));
+
+		// disabling the compact form doesn't rewrite unchanged components
+		DsAnnotationPreferences.setCompactComponentDescriptionsEnabled(
+				getProject(), false);
+		modificationStamp = file.getModificationStamp();
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(modificationStamp, file.getModificationStamp());
+
+		// a changed component is written in the formatted form
+		getProject().getFile("src/de/test/Test.java").setContents(
+				new ByteArrayInputStream(getSource("other").getBytes("UTF-8")),
+				true, false, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		String changed = getContent(file);
+		Assert.assertTrue(changed.indexOf("\n    <") != -1);
+		Assert.assertTrue(changed.indexOf("\"other\"") != -1);
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default("de/test/Test.java", getSource("value"));
+	}
+
+	private static String getSource(String value) {
+		return "package de.test;\n"
+				+ "import org.osgi.service.component.annotations.Component;\n"
+				+ "@Component(property = \"key=" + value + "\")\n"
+				+ "public class Test implements Runnable {\n"
+				+ "  public void run() {}\n" + "}\n";
+	}
+
+	private static String getHeader(String xml) {
+		return xml.substring(xml.indexOf("<!--"), xml.indexOf("-->"));
+	}
+
+	private static String getContent(IFile file) throws Exception {
+		InputStream inputStream = file.getContents(true);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return new String(result.toByteArray(), "UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.wuetherich.osgi.ds.annotations.test.compileerrors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that no component description is generated for a compilation unit
+ * whose only compile error is located in a method body.
+ * </p>
+ */
+public class MethodBodyError_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+		Assert.assertFalse(getProject().getFile("OSGI-INF/de.test.Test.xml")
+				.exists());
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default(
+				"de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test {\n"
+						+ "  public void run() { int i = \"no int\"; }\n"
+						+ "}\n");
+	}
+}
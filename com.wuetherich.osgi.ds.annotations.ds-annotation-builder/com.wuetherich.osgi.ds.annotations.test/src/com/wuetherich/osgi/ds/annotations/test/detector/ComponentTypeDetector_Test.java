@@ -0,0 +1,102 @@
+package com.wuetherich.osgi.ds.annotations.test.detector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentTypeDetector;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentTypeDetector.Result;
+
+/**
+ * <p>
+ * Checks the binding-free detection of compilation units that may declare
+ * components.
+ * </p>
+ */
+public class ComponentTypeDetector_Test {
+
+	@Test
+	public void singleTypeImport() throws Exception {
+		assertEquals(Result.COMPONENT, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.Component;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void fullyQualifiedName() throws Exception {
+		assertEquals(Result.COMPONENT, detect("package de.test;\n"
+				+ "@org.osgi.service.component.annotations.Component\n"
+				+ "public class Test {}\n"));
+	}
+
+	@Test
+	public void onDemandImport() throws Exception {
+		assertEquals(Result.COMPONENT, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.*;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void memberType() throws Exception {
+		assertEquals(Result.COMPONENT, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.Component;\n"
+				+ "public class Test {\n"
+				+ "  @Component public static class Inner {}\n" + "}\n"));
+	}
+
+	@Test
+	public void noComponent() throws Exception {
+		assertEquals(Result.NONE, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.Reference;\n"
+				+ "public class Test {\n"
+				+ "  @Reference public void setService(Object o) {}\n"
+				+ "}\n"));
+	}
+
+	@Test
+	public void otherComponentAnnotation() throws Exception {
+		assertEquals(Result.NONE, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.*;\n"
+				+ "import de.other.Component;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void ambiguousOnDemandImports() throws Exception {
+		assertEquals(Result.AMBIGUOUS, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.*;\n"
+				+ "import de.other.*;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void ambiguousDeclaredType() throws Exception {
+		assertEquals(Result.AMBIGUOUS, detect("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.*;\n"
+				+ "@Component\npublic class Test {\n"
+				+ "  public @interface Component {}\n" + "}\n"));
+	}
+
+	@Test
+	public void syntaxError() throws Exception {
+		assertEquals(Result.AMBIGUOUS, detect("package de.test;\n"
+				+ "public class Test {\n"));
+	}
+
+	private static Result detect(String source) {
+		ASTParser parser = ASTParser.newParser(AST.JLS4);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
+		parser.setCompilerOptions(options);
+		parser.setSource(source.toCharArray());
+		return ComponentTypeDetector.detect((CompilationUnit) parser
+				.createAST(null));
+	}
+}
@@ -0,0 +1,89 @@
+package com.wuetherich.osgi.ds.annotations.test.determinism;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that identical input yields byte-identical component descriptions
+ * over repeated builds, and that unchanged component descriptions are not
+ * rewritten.
+ * </p>
+ */
+public class DeterministicOutput_Test extends AbstractDsAnnotationsTest {
+
+	/** - */
+	private static final int BUILD_COUNT = 5;
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		IFile file = getProject().getFile(
+				Constants.COMPONENT_DESCRIPTION_FOLDER + "/de.test.Test.xml");
+		byte[] expected = getBytes(file);
+
+		// the provided interfaces are sorted
+		String xml = new String(expected, "UTF-8");
+		Assert.assertTrue(xml.indexOf("java.io.Serializable") < xml
+				.indexOf("java.lang.Runnable"));
+
+		// the properties and references are kept in declaration order
+		Assert.assertTrue(xml.indexOf("\"zzz\"") < xml.indexOf("\"aaa\""));
+		Assert.assertTrue(xml.indexOf("\"Runnable\"") < xml
+				.indexOf("\"Executor\""));
+
+		// clean builds generate byte-identical output
+		for (int i = 0; i < BUILD_COUNT; i++) {
+			getProject().build(IncrementalProjectBuilder.CLEAN_BUILD, null);
+			getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+			Assert.assertArrayEquals(expected, getBytes(file));
+		}
+
+		// full builds don't rewrite unchanged component descriptions
+		long modificationStamp = file.getModificationStamp();
+		for (int i = 0; i < BUILD_COUNT; i++) {
+			getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+			Assert.assertEquals(modificationStamp, file.getModificationStamp());
+		}
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default(
+				"de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "import org.osgi.service.component.annotations.Reference;\n"
+						+ "@Component(service={Runnable.class, java.io.Serializable.class}, "
+						+ "property={\"zzz=1\", \"mmm:Integer=2\", \"aaa=3\", \"aaa=4\"})\n"
+						+ "public class Test implements Runnable, java.io.Serializable {\n"
+						+ "  public void run() {}\n"
+						+ "  @Reference public void setRunnable(Runnable r) {}\n"
+						+ "  @Reference public void setExecutor(java.util.concurrent.Executor e) {}\n"
+						+ "}\n");
+	}
+
+	private static byte[] getBytes(IFile file) throws Exception {
+		InputStream inputStream = file.getContents(true);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return result.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.wuetherich.osgi.ds.annotations.test.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentDescriptionAggregate;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that component descriptions with non-ASCII property values are
+ * written as UTF-8 (single files and aggregated file).
+ * </p>
+ */
+public class Utf8ComponentDescriptions_Test extends AbstractDsAnnotationsTest {
+
+	/** a property value outside of ISO-8859-1 */
+	private static final String VALUE = "\u03a9 \u20ac \u00fc";
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		String xml = getContent(getProject().getFile(
+				"OSGI-INF/de.test.Test.xml"));
+		Assert.assertTrue(xml.indexOf("\"" + VALUE + "\"") != -1);
+
+		//
+		DsAnnotationPreferences.setAggregatedComponentDescriptionsEnabled(
+				getProject(), true);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		IFile components = getProject().getFile("OSGI-INF/components.xml");
+		String aggregated = getContent(components);
+		Assert.assertTrue(aggregated.indexOf("\"" + VALUE + "\"") != -1);
+		Assert.assertTrue(aggregated.indexOf("<?xml", 1) == -1);
+
+		// the aggregate is read from disc again and is still up to date
+		ComponentDescriptionAggregate.discard(getProject());
+		long modificationStamp = components.getModificationStamp();
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+		Assert.assertEquals(modificationStamp,
+				components.getModificationStamp());
+		Assert.assertEquals(aggregated, getContent(components));
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default(
+				"de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component(property = \"value=" + VALUE + "\")\n"
+						+ "public class Test {\n" + "}\n");
+	}
+
+	private static String getContent(IFile file) throws Exception {
+		InputStream inputStream = file.getContents(true);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return new String(result.toByteArray(), "UTF-8");
+		} finally {
+			inputStream.close();
+		}
+	}
+}
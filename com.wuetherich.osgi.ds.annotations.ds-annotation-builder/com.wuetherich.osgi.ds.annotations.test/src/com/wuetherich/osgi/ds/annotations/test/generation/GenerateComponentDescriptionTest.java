@@ -35,7 +35,7 @@ public class GenerateComponentDescriptionTest extends
 				getTestCase() + ".result"));
 
 		//
-		String actual = assertComponentDescription(COMPONENT_DESCRIPTION_FILE);
+		String actual = withoutFingerprint(assertComponentDescription(COMPONENT_DESCRIPTION_FILE));
 
 		//
 		try {
@@ -0,0 +1,72 @@
+package com.wuetherich.osgi.ds.annotations.test.header;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * Checks that the source file and the fingerprint are extracted from the
+ * generated header comment, even if the path of the source file contains ']'.
+ * </p>
+ */
+public class GeneratedHeader_Test {
+
+	/** - */
+	private static final Pattern PATTERN = Pattern
+			.compile(Constants.DS_ANNOTATION_BUILDER_GENERATED_REGEXP);
+
+	@Test
+	public void test() throws Exception {
+
+		// the header of a generated file
+		assertHeader("src/de/test/Test.java", "0af3", header(
+				"src/de/test/Test.java", "0af3"));
+		assertHeader("src/a]b/de/test/Test.java", "0af3", header(
+				"src/a]b/de/test/Test.java", "0af3"));
+		assertHeader("src/a] [b]/de/test/Test.java", "0af3", header(
+				"src/a] [b]/de/test/Test.java", "0af3"));
+
+		// the compact form: the component follows on the same line
+		assertHeader("src/a]b/de/test/Test.java", "0af3", header(
+				"src/a]b/de/test/Test.java", "0af3").trim()
+				+ "<scr:component name=\"de.test.Test]-->\"/>");
+
+		// headers without a fingerprint (written by older versions)
+		assertHeader("src/a]b/de/test/Test.java", null,
+				"<!--Generated by DS Annotation Builder [src/a]b/de/test/Test.java]-->");
+
+		// the text of the comment (without the comment delimiters)
+		Matcher matcher = PATTERN
+				.matcher("Generated by DS Annotation Builder [src/a]b/de/test/Test.java] [0af3]");
+		assertTrue(matcher.matches());
+		assertEquals("src/a]b/de/test/Test.java", matcher.group(2));
+		assertEquals("0af3", matcher.group(4));
+	}
+
+	private static String header(String sourceFile, String fingerprint) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+				+ String.format(
+						Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT,
+						sourceFile, fingerprint);
+	}
+
+	private static void assertHeader(String sourceFile, String fingerprint,
+			String header) {
+		Matcher matcher = PATTERN.matcher(header);
+		assertTrue(header, matcher.find());
+		assertEquals(sourceFile, matcher.group(2));
+		if (fingerprint == null) {
+			assertNull(matcher.group(4));
+		} else {
+			assertEquals(fingerprint, matcher.group(4));
+		}
+	}
+}
@@ -29,9 +29,10 @@ public class Issue26_UpdateResourceTest extends AbstractDsAnnotationsTest {
 		String expected_before = fromStream(getClass().getResourceAsStream(
 				this.getClass().getSimpleName() + "_Before.xml"));
 		//
-		String actual_before = fromStream(getProject().getFile(
-				Constants.COMPONENT_DESCRIPTION_FOLDER + "/de.test.Test.xml")
-				.getContents());
+		String actual_before = withoutFingerprint(fromStream(getProject()
+				.getFile(
+						Constants.COMPONENT_DESCRIPTION_FOLDER
+								+ "/de.test.Test.xml").getContents()));
 
 		//
 		// System.out.println("Actual  : " + actual_before);
@@ -58,7 +59,8 @@ public class Issue26_UpdateResourceTest extends AbstractDsAnnotationsTest {
 								+ "/de.test.Test.xml");
 
 				file.refreshLocal(IResource.DEPTH_INFINITE, null);
-				String actual_after = fromStream(file.getContents());
+				String actual_after = withoutFingerprint(fromStream(file
+						.getContents()));
 
 				//
 				return expected_after.equals(actual_after);
@@ -0,0 +1,56 @@
+package com.wuetherich.osgi.ds.annotations.test.ownmodifications;
+
+import java.io.ByteArrayInputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.BuildStatistics;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that a build is skipped if the resource delta only contains the
+ * modifications of the previous build.
+ * </p>
+ */
+public class OwnModification_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+
+		// the build writes a new component description and the manifest
+		getProject().getFile("src/de/test/Test2.java").create(
+				new ByteArrayInputStream(("package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test2 {}\n")
+						.getBytes("UTF-8")), true, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		IFile file = getProject().getFile("OSGI-INF/de.test.Test2.xml");
+		Assert.assertTrue(file.exists());
+		long modificationStamp = file.getModificationStamp();
+
+		// the next build only sees these modifications
+		long avoidedBuilds = BuildStatistics.getAvoidedBuilds();
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertTrue(BuildStatistics.getAvoidedBuilds() > avoidedBuilds);
+		Assert.assertEquals(modificationStamp, file.getModificationStamp());
+
+		// a modification by someone else is built
+		file.setContents(new ByteArrayInputStream("<root/>".getBytes("UTF-8")),
+				true, false, null);
+		avoidedBuilds = BuildStatistics.getAvoidedBuilds();
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertEquals(avoidedBuilds, BuildStatistics.getAvoidedBuilds());
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default("de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test {}\n");
+	}
+}
@@ -0,0 +1,59 @@
+package com.wuetherich.osgi.ds.annotations.test.scanner;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.DsAnnotationScanner;
+
+/**
+ * <p>
+ * Checks the lexical pre-filter that decides whether a source file has to be
+ * parsed at all.
+ * </p>
+ */
+public class DsAnnotationScanner_Test {
+
+	@Test
+	public void singleTypeImport() throws Exception {
+		assertTrue(scan("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.Component;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void onDemandImport() throws Exception {
+		assertTrue(scan("package de.test;\n"
+				+ "import org.osgi.service.component.annotations.*;\n"
+				+ "@Component\npublic class Test {}\n"));
+	}
+
+	@Test
+	public void fullyQualifiedName() throws Exception {
+		assertTrue(scan("package de.test;\n"
+				+ "@org.osgi.service.component.annotations.Component\n"
+				+ "public class Test {}\n"));
+	}
+
+	@Test
+	public void noDsAnnotations() throws Exception {
+		assertFalse(scan("package de.test;\n"
+				+ "import org.osgi.service.component.ComponentContext;\n"
+				+ "public class Test {}\n"));
+		assertFalse(scan(""));
+	}
+
+	@Test
+	public void patternAtEndOfBuffer() throws Exception {
+		assertTrue(scan("org.osgi.service.component.annotations"));
+		assertFalse(scan("org.osgi.service.component.annotation"));
+	}
+
+	private static boolean scan(String content) throws Exception {
+		return DsAnnotationScanner.mayContainDsAnnotations(ByteBuffer
+				.wrap(content.getBytes("UTF-8")));
+	}
+}
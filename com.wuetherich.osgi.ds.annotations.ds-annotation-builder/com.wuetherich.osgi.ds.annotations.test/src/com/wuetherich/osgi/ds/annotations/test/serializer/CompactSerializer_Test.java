@@ -0,0 +1,96 @@
+package com.wuetherich.osgi.ds.annotations.test.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Unmarshaller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentDescriptionSerializer;
+import com.wuetherich.osgi.ds.annotations.internal.builder.JAXBSupport;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractGenerateComponentDescriptionTest;
+import com.wuetherich.osgi.ds.annotations.xml.Tcomponent;
+
+/**
+ * <p>
+ * Checks that the compact form of a component description is smaller than
+ * the formatted form, carries the same provenance comment and describes the
+ * same component.
+ * </p>
+ */
+@RunWith(value = Parameterized.class)
+public class CompactSerializer_Test {
+
+	/** - */
+	private static final String GENERATION_TEST_CASES = "src/com/wuetherich/osgi/ds/annotations/test/generation";
+
+	/** - */
+	private String _testCase;
+
+	/**
+	 * @param testCase
+	 */
+	public CompactSerializer_Test(String testCase) {
+		_testCase = testCase;
+	}
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		Tcomponent tcomponent = unmarshal(new File(GENERATION_TEST_CASES,
+				_testCase + ".result"));
+		String header = String.format(
+				Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT,
+				"src/de/test/Test.java",
+				ComponentDescriptionSerializer.fingerprint(tcomponent));
+
+		//
+		ByteArrayOutputStream formatted = new ByteArrayOutputStream();
+		ComponentDescriptionSerializer.write(tcomponent, header, formatted,
+				false);
+		ByteArrayOutputStream compact = new ByteArrayOutputStream();
+		ComponentDescriptionSerializer.write(tcomponent, header, compact, true);
+
+		// the compact form is smaller, not indented and keeps the header
+		String compactXml = compact.toString("UTF-8");
+		assertTrue(_testCase, compact.size() < formatted.size());
+		assertTrue(_testCase, compactXml.contains(header));
+		assertFalse(_testCase, compactXml.contains("\n    <"));
+
+		// the compact form describes the same component
+		Tcomponent compactComponent = unmarshal(new ByteArrayInputStream(
+				compact.toByteArray()));
+		ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+		ComponentDescriptionSerializer.write(compactComponent, header,
+				rewritten, true);
+		assertEquals(_testCase, compactXml, rewritten.toString("UTF-8"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Tcomponent unmarshal(Object source) throws Exception {
+		Unmarshaller unmarshaller = JAXBSupport.getUnmarshaller();
+		JAXBElement<Tcomponent> jaxbElement = (JAXBElement<Tcomponent>) (source instanceof File ? unmarshaller
+				.unmarshal((File) source) : unmarshaller
+				.unmarshal((ByteArrayInputStream) source));
+		return jaxbElement.getValue();
+	}
+
+	@Parameters
+	public static List<String[]> testCases() {
+		return AbstractGenerateComponentDescriptionTest
+				.testCases(GENERATION_TEST_CASES);
+	}
+}
@@ -0,0 +1,84 @@
+package com.wuetherich.osgi.ds.annotations.test.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentDescriptionSerializer;
+import com.wuetherich.osgi.ds.annotations.internal.builder.JAXBSupport;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractGenerateComponentDescriptionTest;
+import com.wuetherich.osgi.ds.annotations.xml.ObjectFactory;
+import com.wuetherich.osgi.ds.annotations.xml.Tcomponent;
+
+/**
+ * <p>
+ * Checks that the StAX based serializer writes exactly the same bytes as the
+ * JAXB marshaller.
+ * </p>
+ */
+@RunWith(value = Parameterized.class)
+public class ComponentDescriptionSerializer_Test {
+
+	/** - */
+	private static final String GENERATION_TEST_CASES = "src/com/wuetherich/osgi/ds/annotations/test/generation";
+
+	/** - */
+	private String _testCase;
+
+	/**
+	 * @param testCase
+	 */
+	public ComponentDescriptionSerializer_Test(String testCase) {
+		_testCase = testCase;
+	}
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		Unmarshaller unmarshaller = JAXBSupport.getUnmarshaller();
+		@SuppressWarnings("unchecked")
+		JAXBElement<Tcomponent> jaxbElement = (JAXBElement<Tcomponent>) unmarshaller
+				.unmarshal(new File(GENERATION_TEST_CASES, _testCase
+						+ ".result"));
+		Tcomponent tcomponent = jaxbElement.getValue();
+
+		//
+		String header = String.format(
+				Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT,
+				"src/de/test/Test.java",
+				ComponentDescriptionSerializer.fingerprint(tcomponent));
+
+		//
+		ByteArrayOutputStream jaxbResult = new ByteArrayOutputStream();
+		Marshaller marshaller = JAXBSupport.getMarshaller(header);
+		marshaller.marshal(new ObjectFactory().createComponent(tcomponent),
+				jaxbResult);
+
+		//
+		ByteArrayOutputStream staxResult = new ByteArrayOutputStream();
+		ComponentDescriptionSerializer.write(tcomponent, header, staxResult);
+
+		//
+		assertEquals(_testCase, jaxbResult.toString("UTF-8"),
+				staxResult.toString("UTF-8"));
+	}
+
+	@Parameters
+	public static List<String[]> testCases() {
+		return AbstractGenerateComponentDescriptionTest
+				.testCases(GENERATION_TEST_CASES);
+	}
+}
@@ -0,0 +1,67 @@
+package com.wuetherich.osgi.ds.annotations.test.sourcefolders;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.SourceFolders;
+
+/**
+ * <p>
+ * Checks the source folder trie that is used to prune resource deltas.
+ * </p>
+ */
+public class SourceFolders_Test {
+
+	/** - */
+	private SourceFolders _sourceFolders;
+
+	@Before
+	public void setUp() {
+		_sourceFolders = new SourceFolders();
+		_sourceFolders.addSourceFolder(new Path("src"), new IPath[0],
+				new IPath[] { new Path("de/test/excluded/"),
+						new Path("**/Generated*.java") });
+		_sourceFolders.addSourceFolder(new Path("src-gen/main/java"),
+				new IPath[] { new Path("de/**") }, new IPath[0]);
+	}
+
+	@Test
+	public void folders() {
+		assertTrue(_sourceFolders.mayContainSourceFiles(new Path("src")));
+		assertTrue(_sourceFolders.mayContainSourceFiles(new Path("src/de/test")));
+		assertTrue(_sourceFolders.mayContainSourceFiles(new Path("src-gen")));
+		assertTrue(_sourceFolders.mayContainSourceFiles(new Path("src-gen/main")));
+		assertFalse(_sourceFolders.mayContainSourceFiles(new Path("bin")));
+		assertFalse(_sourceFolders.mayContainSourceFiles(new Path("target/classes")));
+		assertFalse(_sourceFolders.mayContainSourceFiles(new Path("src-gen/test")));
+	}
+
+	@Test
+	public void sourceFiles() {
+		assertTrue(_sourceFolders.isSourceFile(new Path("src/de/test/Test.java")));
+		assertTrue(_sourceFolders.isSourceFile(new Path("src-gen/main/java/de/test/Test.java")));
+		assertFalse(_sourceFolders.isSourceFile(new Path("Test.java")));
+		assertFalse(_sourceFolders.isSourceFile(new Path("bin/de/test/Test.java")));
+		assertFalse(_sourceFolders.isSourceFile(new Path("src-gen/main/Test.java")));
+	}
+
+	@Test
+	public void inclusionAndExclusionPatterns() {
+		assertFalse(_sourceFolders.isSourceFile(new Path("src/de/test/excluded/Test.java")));
+		assertFalse(_sourceFolders.isSourceFile(new Path("src/de/test/GeneratedTest.java")));
+		assertFalse(_sourceFolders.isSourceFile(new Path("src-gen/main/java/org/test/Test.java")));
+	}
+
+	@Test
+	public void projectAsSourceFolder() {
+		SourceFolders sourceFolders = new SourceFolders();
+		sourceFolders.addSourceFolder(Path.EMPTY, new IPath[0], new IPath[0]);
+		assertTrue(sourceFolders.mayContainSourceFiles(new Path("de/test")));
+		assertTrue(sourceFolders.isSourceFile(new Path("de/test/Test.java")));
+	}
+}
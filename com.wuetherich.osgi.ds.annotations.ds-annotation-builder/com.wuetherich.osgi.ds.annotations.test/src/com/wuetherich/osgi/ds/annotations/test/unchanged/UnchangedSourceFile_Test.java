@@ -0,0 +1,79 @@
+package com.wuetherich.osgi.ds.annotations.test.unchanged;
+
+import java.io.ByteArrayInputStream;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.builder.BuildStatistics;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks that a source file whose content has not changed is skipped by an
+ * incremental build and that the problem markers of the skipped file survive.
+ * </p>
+ */
+public class UnchangedSourceFile_Test extends AbstractDsAnnotationsTest {
+
+	/** the content of the source file (activate and deactivate method have the same name) */
+	private static final String CONTENT = "package de.test;\n"
+			+ "import org.osgi.service.component.annotations.Activate;\n"
+			+ "import org.osgi.service.component.annotations.Component;\n"
+			+ "import org.osgi.service.component.annotations.Deactivate;\n"
+			+ "@Component\npublic class Test {\n"
+			+ "  @Activate public void hurz() {}\n"
+			+ "  @Deactivate public void hurz(java.util.Map map) {}\n"
+			+ "}\n";
+
+	@Test
+	public void test() throws Exception {
+
+		// the full build reports the problem
+		IFile file = getProject().getFile("src/de/test/Test.java");
+		Assert.assertEquals(1, getProblemMarkers(file).length);
+		String message = (String) getProblemMarkers(file)[0]
+				.getAttribute(IMarker.MESSAGE);
+
+		// write the file with identical content: the full build hasn't
+		// computed the content hash, so the file is analyzed (and hashed)
+		file.setContents(new ByteArrayInputStream(CONTENT.getBytes(file.getCharset())),
+				true, false, null);
+		long unchangedSourceFiles = BuildStatistics.getUnchangedSourceFiles();
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertEquals(unchangedSourceFiles,
+				BuildStatistics.getUnchangedSourceFiles());
+		Assert.assertEquals(1, getProblemMarkers(file).length);
+
+		// write the file with identical content again: the file is skipped
+		file.setContents(new ByteArrayInputStream(CONTENT.getBytes(file.getCharset())),
+				true, false, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertTrue(BuildStatistics.getUnchangedSourceFiles() > unchangedSourceFiles);
+
+		// the problem marker of the skipped file survives
+		IMarker[] markers = getProblemMarkers(file);
+		Assert.assertEquals(1, markers.length);
+		Assert.assertEquals(message, markers[0].getAttribute(IMarker.MESSAGE));
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default("de/test/Test.java", CONTENT);
+	}
+
+	@Override
+	protected boolean failOnErrors() {
+		return false;
+	}
+
+	private static IMarker[] getProblemMarkers(IFile file) throws Exception {
+		return file.findMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, false,
+				IResource.DEPTH_ZERO);
+	}
+}
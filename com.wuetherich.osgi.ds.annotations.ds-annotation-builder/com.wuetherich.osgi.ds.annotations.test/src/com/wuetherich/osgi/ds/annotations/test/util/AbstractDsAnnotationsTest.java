@@ -1,10 +1,11 @@
 package com.wuetherich.osgi.ds.annotations.test.util;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringBufferInputStream;
+import java.io.UnsupportedEncodingException;
 
 import org.custommonkey.xmlunit.XMLUnit;
 import org.eclipse.core.resources.IFile;
@@ -133,8 +134,12 @@ public abstract class AbstractDsAnnotationsTest {
 		}
 
 		IFile file = srcFolder.getFile(path);
-		file.create(new StringBufferInputStream(sourceFile.getContent()), true,
-				null);
+		try {
+			file.create(new ByteArrayInputStream(sourceFile.getContent()
+					.getBytes(file.getCharset())), true, null);
+		} catch (UnsupportedEncodingException e) {
+			Assert.fail(e.getMessage());
+		}
 	}
 
 	/**
@@ -218,10 +223,23 @@ public abstract class AbstractDsAnnotationsTest {
 		return fromStream(inputStream);
 	}
 
+	/**
+	 * <p>
+	 * Removes the fingerprint from the generated header comment, so that the
+	 * result can be compared with the expected component descriptions.
+	 * </p>
+	 * 
+	 * @param xml
+	 * @return
+	 */
+	public static String withoutFingerprint(String xml) {
+		return xml.replaceAll("\\] \\[[0-9a-f]+\\]-->", "]-->");
+	}
+
 	public static String fromStream(InputStream in) {
 		try {
 			BufferedReader reader = new BufferedReader(
-					new InputStreamReader(in));
+					new InputStreamReader(in, "UTF-8"));
 			StringBuilder out = new StringBuilder();
 			String line;
 			while ((line = reader.readLine()) != null) {
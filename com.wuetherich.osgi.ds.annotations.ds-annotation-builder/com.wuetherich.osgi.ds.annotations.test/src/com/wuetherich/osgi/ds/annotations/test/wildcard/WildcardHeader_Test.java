@@ -0,0 +1,102 @@
+package com.wuetherich.osgi.ds.annotations.test.wildcard;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.util.BundleFiles;
+import com.wuetherich.osgi.ds.annotations.test.util.AbstractDsAnnotationsTest;
+
+/**
+ * <p>
+ * Checks the wildcard Service-Component header mode.
+ * </p>
+ */
+public class WildcardHeader_Test extends AbstractDsAnnotationsTest {
+
+	@Test
+	public void test() throws Exception {
+
+		//
+		DsAnnotationPreferences.setWildcardServiceComponentHeaderEnabled(
+				getProject(), true);
+		getProject().build(IncrementalProjectBuilder.FULL_BUILD, null);
+
+		// the wildcard header is written
+		IFile manifest = getProject().getFile("META-INF/MANIFEST.MF");
+		Assert.assertEquals(Collections.singletonList("OSGI-INF/*.xml"),
+				getServiceComponentHeader(manifest));
+
+		// adding a component doesn't modify the manifest
+		long modificationStamp = manifest.getModificationStamp();
+		getProject().getFile("src/de/test/Test2.java").create(
+				new ByteArrayInputStream(("package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test2 {}\n")
+						.getBytes("UTF-8")), true, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertTrue(getProject().getFile("OSGI-INF/de.test.Test2.xml")
+				.exists());
+		Assert.assertEquals(modificationStamp, manifest.getModificationStamp());
+
+		// a hand-written xml file disables the wildcard (even if no source
+		// file has been changed)
+		IFile handWritten = getProject().getFile("OSGI-INF/handwritten.xml");
+		handWritten.create(new ByteArrayInputStream("<root/>"
+				.getBytes("UTF-8")), true, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertEquals(Arrays.asList("OSGI-INF/de.test.Test.xml",
+				"OSGI-INF/de.test.Test2.xml"),
+				getServiceComponentHeader(manifest));
+		IMarker[] markers = handWritten.findMarkers(
+				Constants.DS_ANNOTATION_PROBLEM_MARKER, false,
+				IResource.DEPTH_ZERO);
+		Assert.assertEquals(1, markers.length);
+		Assert.assertEquals(IMarker.SEVERITY_WARNING,
+				markers[0].getAttribute(IMarker.SEVERITY, -1));
+
+		// removing the hand-written xml file restores the wildcard
+		handWritten.delete(true, null);
+		getProject().build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+		Assert.assertEquals(Collections.singletonList("OSGI-INF/*.xml"),
+				getServiceComponentHeader(manifest));
+	}
+
+	@Override
+	protected SourceFile createSourceFile() {
+		return new SourceFile.Default("de/test/Test.java",
+				"package de.test;\n"
+						+ "import org.osgi.service.component.annotations.Component;\n"
+						+ "@Component\npublic class Test {}\n");
+	}
+
+	private static List<String> getServiceComponentHeader(IFile file)
+			throws Exception {
+		InputStream inputStream = file.getContents(true);
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = inputStream.read(buffer)) != -1) {
+				result.write(buffer, 0, count);
+			}
+			return BundleFiles.getManifestHeader(
+					new String(result.toByteArray(), "UTF-8"),
+					Constants.BUNDLE_HEADER_SERVICE_COMPONENT);
+		} finally {
+			inputStream.close();
+		}
+	}
+}
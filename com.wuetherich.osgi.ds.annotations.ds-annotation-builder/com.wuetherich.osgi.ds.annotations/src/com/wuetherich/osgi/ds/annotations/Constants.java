@@ -35,9 +35,12 @@ public interface Constants {
   /** - */
   final String DS_ANNOTATION_PACKAGE                   = Component.class.getPackage().getName();
 
-  /** - */
-  final String DS_ANNOTATION_BUILDER_GENERATED_REGEXP  = "(Generated by DS Annotation Builder \\[)(.*)(\\])";
+  /**
+   * group 2: the source file, group 4: the (optional) fingerprint of the component description. The source file may
+   * contain ']', so it ends at the first ']' that is followed by the (optional) fingerprint and the end of the comment.
+   */
+  final String DS_ANNOTATION_BUILDER_GENERATED_REGEXP  = "(Generated by DS Annotation Builder \\[)(.*?)(\\])(?: \\[([0-9a-f]+)\\])?(?:-->|$)";
 
   /** - */
-  final String DS_ANNOTATION_BUILDER_GENERATED_COMMENT = "<!--Generated by DS Annotation Builder [%s]-->\n";
+  final String DS_ANNOTATION_BUILDER_GENERATED_COMMENT = "<!--Generated by DS Annotation Builder [%s] [%s]-->\n";
 }
@@ -11,12 +11,21 @@
 package com.wuetherich.osgi.ds.annotations.internal;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.pde.core.project.IBundleProjectDescription;
 import org.eclipse.pde.core.project.IBundleProjectService;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ProjectBuildState;
 
 /**
  * <p>
@@ -28,7 +37,13 @@ import org.osgi.framework.ServiceReference;
 public class Activator implements BundleActivator {
 
   /** the bundle context */
-  private static BundleContext bundleContext;
+  private static BundleContext                                                bundleContext;
+
+  /** the tracker for the bundle project service */
+  private static ServiceTracker<IBundleProjectService, IBundleProjectService> bundleProjectServiceTracker;
+
+  /** the listener that discards the build state of deleted projects */
+  private DsAnnotationResourceChangeListener                                  _resourceChangeListener;
 
   /**
    * {@inheritDoc}
@@ -36,6 +51,22 @@ public class Activator implements BundleActivator {
   @Override
   public void start(BundleContext context) throws Exception {
     bundleContext = context;
+
+    // the bundle project service is tracked instead of being looked up for every manifest update
+    bundleProjectServiceTracker = new ServiceTracker<IBundleProjectService, IBundleProjectService>(context,
+        IBundleProjectService.class, null);
+    bundleProjectServiceTracker.open();
+
+    //
+    IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+    // save the build states together with the workspace
+    workspace.addSaveParticipant(Constants.BUNDLE_ID, new DsAnnotationSaveParticipant());
+
+    //
+    _resourceChangeListener = new DsAnnotationResourceChangeListener();
+    workspace.addResourceChangeListener(_resourceChangeListener, IResourceChangeEvent.PRE_DELETE
+        | IResourceChangeEvent.POST_CHANGE);
   }
 
   /**
@@ -43,6 +74,20 @@ public class Activator implements BundleActivator {
    */
   @Override
   public void stop(BundleContext context) throws Exception {
+
+    //
+    IWorkspace workspace = ResourcesPlugin.getWorkspace();
+    workspace.removeResourceChangeListener(_resourceChangeListener);
+    workspace.removeSaveParticipant(Constants.BUNDLE_ID);
+
+    // the save participant may not have been called (e.g. if the workspace has not been saved)
+    ProjectBuildState.saveAll();
+
+    //
+    bundleProjectServiceTracker.close();
+    bundleProjectServiceTracker = null;
+
+    //
     bundleContext = context;
   }
 
@@ -59,34 +104,57 @@ public class Activator implements BundleActivator {
 
   /**
    * <p>
-   * Returns the {@link IBundleProjectDescription}.
+   * Writes the given status to the log of this plug-in.
    * </p>
    * 
-   * @return the {@link IBundleProjectDescription}.
-   * @throws CoreException
+   * @param status
+   *          the status to log
    */
-  public static IBundleProjectDescription getBundleProjectDescription(IProject project) throws CoreException {
-
-    // step 1: get the service reference
-    ServiceReference<IBundleProjectService> ref = bundleContext.getServiceReference(IBundleProjectService.class);
+  public static void log(IStatus status) {
 
-    if (ref != null) {
+    // the plug-in has not been started (e.g. in plain unit tests)
+    if (bundleContext == null) {
+      return;
+    }
 
-      // step 2: get the service
-      IBundleProjectService service = bundleContext.getService(ref);
+    //
+    Platform.getLog(bundleContext.getBundle()).log(status);
+  }
 
-      if (service != null) {
+  /**
+   * <p>
+   * Writes the given exception as an error to the log of this plug-in.
+   * </p>
+   * 
+   * @param message
+   *          the message
+   * @param throwable
+   *          the exception
+   */
+  public static void logError(String message, Throwable throwable) {
+    log(new Status(IStatus.ERROR, Constants.BUNDLE_ID, message, throwable));
+  }
 
-        // get the IBundleProjectDescription
-        IBundleProjectDescription result = service.getDescription(project);
+  /**
+   * <p>
+   * Returns the {@link IBundleProjectDescription}.
+   * </p>
+   * 
+   * @return the {@link IBundleProjectDescription}.
+   * @throws CoreException
+   */
+  public static IBundleProjectDescription getBundleProjectDescription(IProject project) throws CoreException {
 
-        bundleContext.ungetService(ref);
+    // get the tracked service
+    IBundleProjectService service = bundleProjectServiceTracker != null ? bundleProjectServiceTracker.getService()
+        : null;
 
-        return result;
-      }
+    // return null if no IBundleProjectService is available
+    if (service == null) {
+      return null;
     }
 
-    // return null if no IBundleProjectService is available
-    return null;
+    // get the IBundleProjectDescription
+    return service.getDescription(project);
   }
 }
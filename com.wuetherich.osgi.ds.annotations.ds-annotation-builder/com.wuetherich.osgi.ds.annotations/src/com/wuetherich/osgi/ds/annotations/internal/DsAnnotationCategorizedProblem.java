@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal;
+
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.compiler.IProblem;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * A {@link DsAnnotationProblem} that is reported to JDT (e.g. by a compilation participant). JDT creates the
+ * corresponding problem markers of type {@link Constants#DS_ANNOTATION_PROBLEM_MARKER} together with its own markers.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationCategorizedProblem extends CategorizedProblem {
+
+  /** the name of the originating file */
+  private char[] _fileName;
+
+  /** the message */
+  private String _message;
+
+  /** the start position (inclusive) */
+  private int    _sourceStart;
+
+  /** the end position (inclusive) */
+  private int    _sourceEnd;
+
+  /** the line number */
+  private int    _lineNumber;
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link DsAnnotationCategorizedProblem}.
+   * </p>
+   * 
+   * @param fileName
+   *          the name of the originating file
+   * @param problem
+   *          the DS annotation problem
+   * @param lineNumber
+   *          the line number of the problem
+   */
+  public DsAnnotationCategorizedProblem(char[] fileName, DsAnnotationProblem problem, int lineNumber) {
+    _fileName = fileName;
+    _message = problem.getMessage();
+    _sourceStart = problem.getCharStart();
+    _sourceEnd = problem.getCharEnd() - 1;
+    _lineNumber = lineNumber;
+  }
+
+  @Override
+  public int getCategoryID() {
+    return CAT_UNSPECIFIED;
+  }
+
+  @Override
+  public String getMarkerType() {
+    return Constants.DS_ANNOTATION_PROBLEM_MARKER;
+  }
+
+  @Override
+  public String[] getArguments() {
+    return new String[0];
+  }
+
+  @Override
+  public int getID() {
+    return IProblem.ExternalProblemNotFixable;
+  }
+
+  @Override
+  public String getMessage() {
+    return _message;
+  }
+
+  @Override
+  public char[] getOriginatingFileName() {
+    return _fileName;
+  }
+
+  @Override
+  public int getSourceStart() {
+    return _sourceStart;
+  }
+
+  @Override
+  public int getSourceEnd() {
+    return _sourceEnd;
+  }
+
+  @Override
+  public int getSourceLineNumber() {
+    return _lineNumber;
+  }
+
+  @Override
+  public boolean isError() {
+    return true;
+  }
+
+  @Override
+  public boolean isWarning() {
+    return false;
+  }
+
+  @Override
+  public void setSourceStart(int sourceStart) {
+    _sourceStart = sourceStart;
+  }
+
+  @Override
+  public void setSourceEnd(int sourceEnd) {
+    _sourceEnd = sourceEnd;
+  }
+
+  @Override
+  public void setSourceLineNumber(int lineNumber) {
+    _lineNumber = lineNumber;
+  }
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.osgi.service.prefs.BackingStoreException;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * Access to the project specific preferences of the DS annotation builder. The preferences are stored in the project
+ * scope (<code>.settings/com.wuetherich.osgi.ds.annotations.prefs</code>), so they can be shared with the project.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationPreferences {
+
+  /** generate the component descriptions from within the java builder (see DsAnnotationCompilationParticipant) */
+  public static final String COMPILATION_PARTICIPANT           = "compilationParticipant";
+
+  /** write a stable wildcard Service-Component header instead of enumerating the component descriptions */
+  public static final String WILDCARD_SERVICE_COMPONENT_HEADER = "wildcardServiceComponentHeader";
+
+  /** write all component descriptions of a project to a single file */
+  public static final String AGGREGATED_COMPONENT_DESCRIPTIONS = "aggregatedComponentDescriptions";
+
+  /** write component descriptions without indentation and default valued attributes */
+  public static final String COMPACT_COMPONENT_DESCRIPTIONS    = "compactComponentDescriptions";
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the component descriptions of the given project are generated by the compilation
+   * participant instead of the DS annotation builder.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return <code>true</code> if the compilation participant is enabled for the given project.
+   */
+  public static boolean isCompilationParticipantEnabled(IProject project) {
+    return getPreferences(project).getBoolean(COMPILATION_PARTICIPANT, false);
+  }
+
+  /**
+   * <p>
+   * Enables or disables the compilation participant for the given project.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @param enabled
+   *          <code>true</code> to enable the compilation participant
+   * @throws BackingStoreException
+   */
+  public static void setCompilationParticipantEnabled(IProject project, boolean enabled) throws BackingStoreException {
+    IEclipsePreferences preferences = getPreferences(project);
+    preferences.putBoolean(COMPILATION_PARTICIPANT, enabled);
+    preferences.flush();
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the manifest of the given project should contain the wildcard header
+   * <code>Service-Component: OSGI-INF/*.xml</code> instead of an enumeration of all component descriptions. With a
+   * wildcard header, adding, removing or renaming a component doesn't modify the manifest.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return <code>true</code> if the wildcard header is enabled for the given project.
+   */
+  public static boolean isWildcardServiceComponentHeaderEnabled(IProject project) {
+    return getPreferences(project).getBoolean(WILDCARD_SERVICE_COMPONENT_HEADER, false);
+  }
+
+  /**
+   * <p>
+   * Enables or disables the wildcard header for the given project.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @param enabled
+   *          <code>true</code> to enable the wildcard header
+   * @throws BackingStoreException
+   */
+  public static void setWildcardServiceComponentHeaderEnabled(IProject project, boolean enabled)
+      throws BackingStoreException {
+    IEclipsePreferences preferences = getPreferences(project);
+    preferences.putBoolean(WILDCARD_SERVICE_COMPONENT_HEADER, enabled);
+    preferences.flush();
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if all component descriptions of the given project are written to the single file
+   * <code>OSGI-INF/components.xml</code> instead of one file per component.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return <code>true</code> if the aggregated component descriptions are enabled for the given project.
+   */
+  public static boolean isAggregatedComponentDescriptionsEnabled(IProject project) {
+    return getPreferences(project).getBoolean(AGGREGATED_COMPONENT_DESCRIPTIONS, false);
+  }
+
+  /**
+   * <p>
+   * Enables or disables the aggregated component descriptions for the given project.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @param enabled
+   *          <code>true</code> to enable the aggregated component descriptions
+   * @throws BackingStoreException
+   */
+  public static void setAggregatedComponentDescriptionsEnabled(IProject project, boolean enabled)
+      throws BackingStoreException {
+    IEclipsePreferences preferences = getPreferences(project);
+    preferences.putBoolean(AGGREGATED_COMPONENT_DESCRIPTIONS, enabled);
+    preferences.flush();
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the component descriptions of the given project are written in the compact form
+   * (without indentation and without attributes whose value equals the default value of the SCR schema). The compact
+   * form and the formatted form of the same component are considered equal, so existing component descriptions are
+   * only written in the new form if they change.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return <code>true</code> if the compact component descriptions are enabled for the given project.
+   */
+  public static boolean isCompactComponentDescriptionsEnabled(IProject project) {
+    return getPreferences(project).getBoolean(COMPACT_COMPONENT_DESCRIPTIONS, false);
+  }
+
+  /**
+   * <p>
+   * Enables or disables the compact component descriptions for the given project.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @param enabled
+   *          <code>true</code> to enable the compact component descriptions
+   * @throws BackingStoreException
+   */
+  public static void setCompactComponentDescriptionsEnabled(IProject project, boolean enabled)
+      throws BackingStoreException {
+    IEclipsePreferences preferences = getPreferences(project);
+    preferences.putBoolean(COMPACT_COMPONENT_DESCRIPTIONS, enabled);
+    preferences.flush();
+  }
+
+  /**
+   * <p>
+   * Returns the project scoped preferences of the given project.
+   * </p>
+   * 
+   * @param project
+   * @return the project scoped preferences of the given project.
+   */
+  private static IEclipsePreferences getPreferences(IProject project) {
+    return new ProjectScope(project).getNode(Constants.BUNDLE_ID);
+  }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.runtime.IPath;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.ComponentDescriptionAggregate;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ManifestModel;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ProjectBuildState;
+
+/**
+ * <p>
+ * The {@link DsAnnotationResourceChangeListener} discards the {@link ProjectBuildState build state} and the
+ * {@link ManifestModel manifest model} of projects that are about to be deleted. It also discards the manifest model of
+ * a project if its manifest or build properties have been modified.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationResourceChangeListener implements IResourceChangeListener {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void resourceChanged(IResourceChangeEvent event) {
+
+    //
+    if (event.getType() == IResourceChangeEvent.PRE_DELETE && event.getResource() instanceof IProject) {
+      ProjectBuildState.discard((IProject) event.getResource());
+      ManifestModel.discard((IProject) event.getResource());
+      ComponentDescriptionAggregate.discard((IProject) event.getResource());
+    }
+
+    //
+    else if (event.getType() == IResourceChangeEvent.POST_CHANGE && event.getDelta() != null) {
+      for (IResourceDelta projectDelta : event.getDelta().getAffectedChildren()) {
+        for (IPath watchedFile : ManifestModel.WATCHED_FILES) {
+          IResourceDelta fileDelta = projectDelta.findMember(watchedFile);
+          if (fileDelta != null && fileDelta.getResource() instanceof IFile) {
+            ManifestModel.resourceChanged((IProject) projectDelta.getResource(), (IFile) fileDelta.getResource());
+          }
+        }
+      }
+    }
+  }
+}
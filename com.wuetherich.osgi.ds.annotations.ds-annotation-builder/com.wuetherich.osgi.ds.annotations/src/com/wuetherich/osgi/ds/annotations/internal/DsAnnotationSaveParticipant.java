@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal;
+
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
+import org.eclipse.core.runtime.CoreException;
+
+import com.wuetherich.osgi.ds.annotations.internal.builder.ProjectBuildState;
+
+/**
+ * <p>
+ * The {@link DsAnnotationSaveParticipant} saves the {@link ProjectBuildState build states} of the DS annotation builder
+ * whenever the workspace is saved.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationSaveParticipant implements ISaveParticipant {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void prepareToSave(ISaveContext context) throws CoreException {
+    // nothing to do
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void saving(ISaveContext context) throws CoreException {
+
+    //
+    if (context.getKind() == ISaveContext.PROJECT_SAVE) {
+      ProjectBuildState.save(context.getProject());
+    } else {
+      ProjectBuildState.saveAll();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void doneSaving(ISaveContext context) {
+    // nothing to do
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void rollback(ISaveContext context) {
+    // nothing to do
+  }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Counters that describe how much work the DS annotation builder has done (and avoided) since the counters have been
+ * reset. The counters are global (i.e. not per project) and thread safe.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class BuildStatistics {
+
+  /** the number of compilation units parsed without bindings */
+  private static final AtomicLong UNRESOLVED_PARSES       = new AtomicLong();
+
+  /** the number of compilation units parsed with bindings */
+  private static final AtomicLong RESOLVED_PARSES         = new AtomicLong();
+
+  /** the number of compilation units that didn't have to be parsed with bindings */
+  private static final AtomicLong AVOIDED_RESOLVED_PARSES = new AtomicLong();
+
+  /** the number of compilation units that had to be parsed with bindings because the detection was ambiguous */
+  private static final AtomicLong AMBIGUOUS_DETECTIONS    = new AtomicLong();
+
+  /** the number of source files that have been skipped because their content has not changed */
+  private static final AtomicLong UNCHANGED_SOURCE_FILES  = new AtomicLong();
+
+  /** the number of builds that have been skipped because the delta only contained the builder's own modifications */
+  private static final AtomicLong AVOIDED_BUILDS          = new AtomicLong();
+
+  public static void unresolvedParse() {
+    UNRESOLVED_PARSES.incrementAndGet();
+  }
+
+  public static void resolvedParses(int count) {
+    RESOLVED_PARSES.addAndGet(count);
+  }
+
+  public static void avoidedResolvedParse() {
+    AVOIDED_RESOLVED_PARSES.incrementAndGet();
+  }
+
+  public static void ambiguousDetection() {
+    AMBIGUOUS_DETECTIONS.incrementAndGet();
+  }
+
+  public static void unchangedSourceFile() {
+    UNCHANGED_SOURCE_FILES.incrementAndGet();
+  }
+
+  public static void avoidedBuild() {
+    AVOIDED_BUILDS.incrementAndGet();
+  }
+
+  public static long getUnresolvedParses() {
+    return UNRESOLVED_PARSES.get();
+  }
+
+  public static long getResolvedParses() {
+    return RESOLVED_PARSES.get();
+  }
+
+  public static long getAvoidedResolvedParses() {
+    return AVOIDED_RESOLVED_PARSES.get();
+  }
+
+  public static long getAmbiguousDetections() {
+    return AMBIGUOUS_DETECTIONS.get();
+  }
+
+  public static long getUnchangedSourceFiles() {
+    return UNCHANGED_SOURCE_FILES.get();
+  }
+
+  public static long getAvoidedBuilds() {
+    return AVOIDED_BUILDS.get();
+  }
+
+  /**
+   * <p>
+   * Resets all counters.
+   * </p>
+   */
+  public static void reset() {
+    UNRESOLVED_PARSES.set(0);
+    RESOLVED_PARSES.set(0);
+    AVOIDED_RESOLVED_PARSES.set(0);
+    AMBIGUOUS_DETECTIONS.set(0);
+    UNCHANGED_SOURCE_FILES.set(0);
+    AVOIDED_BUILDS.set(0);
+  }
+
+  /**
+   * <p>
+   * Returns a human readable representation of all counters.
+   * </p>
+   * 
+   * @return a human readable representation of all counters.
+   */
+  public static String asString() {
+    return String.format("unresolved parses: %s, resolved parses: %s, avoided resolved parses: %s, ambiguous: %s, "
+        + "unchanged files: %s, avoided builds: %s", getUnresolvedParses(), getResolvedParses(),
+        getAvoidedResolvedParses(), getAmbiguousDetections(), getUnchangedSourceFiles(), getAvoidedBuilds());
+  }
+}
@@ -10,20 +10,31 @@
  ******************************************************************************/
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.PropertyException;
 import javax.xml.bind.Unmarshaller;
 
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.Assert;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.IType;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.ITypeBinding;
@@ -36,7 +47,9 @@ import org.osgi.framework.InvalidSyntaxException;
 
 import com.wuetherich.osgi.ds.annotations.Constants;
 import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationException;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
 import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationProblem;
+import com.wuetherich.osgi.ds.annotations.internal.util.PooledByteArrayOutputStream;
 import com.wuetherich.osgi.ds.annotations.xml.ObjectFactory;
 import com.wuetherich.osgi.ds.annotations.xml.Tcomponent;
 import com.wuetherich.osgi.ds.annotations.xml.TconfigurationPolicy;
@@ -67,6 +80,9 @@ public class ComponentDescription {
   /** - */
   private static final String       MSG_NO_SUPERTYPE_S                = "NO SUPERTYPE '%s'.";
 
+  /** - */
+  private static final String       MSG_UNRESOLVED_SERVICE            = "Unresolved service type.";
+
   /** - */
   private static final String       MSG_INVALID_FILTER_S              = "Invalid filter '%s'.";
 
@@ -88,6 +104,18 @@ public class ComponentDescription {
   /** - */
   private String                    _sourceFile;
 
+  /** the project of the source file */
+  private IProject                  _project;
+
+  /** the source files (project relative) of all the types this component description depends on */
+  private Set<String>               _dependencies;
+
+  /** the (lazily computed) fingerprint */
+  private String                    _fingerprint;
+
+  /** the (lazily computed) xml representation */
+  private byte[]                    _xml;
+
   /**
    * <p>
    * Creates a new instance of type {@link ComponentDescription}.
@@ -101,8 +129,9 @@ public class ComponentDescription {
     //
     try {
       CompilationUnit compilationUnit = (CompilationUnit) typeDeclaration.getParent();
-      _sourceFile = compilationUnit.getTypeRoot().getCorrespondingResource().getProjectRelativePath()
-          .toPortableString();
+      IResource resource = compilationUnit.getTypeRoot().getCorrespondingResource();
+      _sourceFile = resource.getProjectRelativePath().toPortableString();
+      _project = resource.getProject();
     } catch (JavaModelException e) {
       //
       // TODO: LOG
@@ -111,6 +140,7 @@ public class ComponentDescription {
     this._typeDeclaration = typeDeclaration;
     _tcomponent = new Tcomponent();
     _problems = new LinkedList<DsAnnotationProblem>();
+    _dependencies = new LinkedHashSet<String>();
   }
 
   /**
@@ -212,10 +242,11 @@ public class ComponentDescription {
       if (componentProperties.size() == 1) {
         tproperty.setPropertyValue(componentProperty.getValue());
       } else {
-        StringBuilder stringBuilder = new StringBuilder(System.getProperty("line.separator"));
+        // the line separator of the platform would lead to different output on different platforms
+        StringBuilder stringBuilder = new StringBuilder("\n");
         for (ComponentProperty prop : componentProperties) {
           stringBuilder.append(prop.getValue());
-          stringBuilder.append(System.getProperty("line.separator"));
+          stringBuilder.append("\n");
         }
         tproperty.setValue(stringBuilder.toString());
       }
@@ -244,14 +275,18 @@ public class ComponentDescription {
       //
       _tcomponent.getService().getProvide().clear();
 
-      //
+      // validate the provided interfaces in declaration order (before sorting, that doesn't accept null)
       for (String service : services) {
-
-        Assert.isNotNull(service);
+        if (service == null) {
+          throw new DsAnnotationException(MSG_UNRESOLVED_SERVICE, FIELD_NAME_SERVICE);
+        }
         if (!isInstanceOf(service)) {
           throw new DsAnnotationException(String.format(MSG_NO_SUPERTYPE_S, service, FIELD_NAME_SERVICE));
         }
+      }
 
+      // the order of the provided interfaces has no meaning for SCR: they are sorted (and duplicates are removed)
+      for (String service : new TreeSet<String>(Arrays.asList(services))) {
         Tprovide tprovide = new Tprovide();
         tprovide.setInterface(service);
         _tcomponent.getService().getProvide().add(tprovide);
@@ -408,46 +443,113 @@ public class ComponentDescription {
       reference.setPolicyOption(TpolicyOption.fromValue(policyOption.toLowerCase()));
     }
 
+    // the references are kept in declaration order: SCR binds the references in the order of the component description
     _tcomponent.getReference().add(reference);
   }
 
   /**
    * <p>
+   * Returns the xml representation of this component description.
    * </p>
    * 
-   * @param xmlProjectDescription
-   * @param outputStream
+   * @return the xml representation of this component description.
    */
   public String toXml() {
 
+    //
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+    //
+    writeXml(result);
+
+    //
     try {
+      return result.toString("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
 
-      JAXBContext jaxbContext = createJAXBContext();
+  /**
+   * <p>
+   * Returns the (UTF-8 encoded) xml representation of this component description. The xml representation is computed
+   * once and retained (e.g. as a chunk of the aggregated component descriptions, see
+   * {@link ComponentDescriptionAggregate}).
+   * </p>
+   * 
+   * @return the (UTF-8 encoded) xml representation of this component description.
+   */
+  public byte[] toByteArray() {
 
-      // create the marshaller
-      Marshaller marshaller = jaxbContext.createMarshaller();
+    //
+    if (_xml == null) {
+      PooledByteArrayOutputStream outputStream = PooledByteArrayOutputStream.get();
+      writeXml(outputStream);
+      _xml = outputStream.toByteArray();
+    }
 
-      // set formatted output
-      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-      if (_sourceFile != null) {
-        try {
-          marshaller.setProperty("com.sun.xml.internal.bind.xmlHeaders",
-              String.format(Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT, _sourceFile));
-        } catch (PropertyException ex) {
-          marshaller.setProperty("com.sun.xml.bind.xmlHeaders",
-              String.format(Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT, _sourceFile));
-        }
-      }
-      //
-      StringWriter result = new StringWriter();
+    //
+    return _xml;
+  }
 
-      //
-      marshaller.marshal(new ObjectFactory().createComponent(_tcomponent), result);
+  /**
+   * <p>
+   * Returns a bounded input stream that reads the (UTF-8 encoded) xml representation of this component description. If
+   * the xml representation has not been computed before (see {@link #toByteArray()}), the component description is
+   * serialized into the (reused) buffer of the current thread without copying it. The returned stream is only valid
+   * until the buffer of the current thread is used again.
+   * </p>
+   * 
+   * @return a bounded input stream that reads the xml representation of this component description.
+   */
+  public InputStream toInputStream() {
+
+    // the xml representation has already been computed
+    if (_xml != null) {
+      return new ByteArrayInputStream(_xml);
+    }
+
+    //
+    PooledByteArrayOutputStream outputStream = PooledByteArrayOutputStream.get();
+    writeXml(outputStream);
+    return outputStream.toInputStream();
+  }
+
+  /**
+   * <p>
+   * Writes the xml representation of this component description (UTF-8 encoded) to the given output stream.
+   * </p>
+   * 
+   * @param outputStream
+   *          the output stream
+   */
+  public void writeXml(OutputStream outputStream) {
+
+    //
+    String header = _sourceFile != null ? String.format(Constants.DS_ANNOTATION_BUILDER_GENERATED_COMMENT,
+        _sourceFile, getFingerprint()) : null;
+
+    // the fingerprint (and therefore the up-to-date check) doesn't depend on the output form
+    boolean compact = isCompact();
+
+    try {
 
       //
-      return result.toString();
+      if (ComponentDescriptionSerializer.useJaxb()) {
+
+        // get the marshaller of the current thread
+        Marshaller marshaller = JAXBSupport.getMarshaller(header, !compact);
+
+        //
+        marshaller.marshal(new ObjectFactory().createComponent(_tcomponent), outputStream);
 
-    } catch (JAXBException e) {
+      } else {
+
+        //
+        ComponentDescriptionSerializer.write(_tcomponent, header, outputStream, compact);
+      }
+
+    } catch (Exception e) {
       e.printStackTrace();
       throw new RuntimeException(e.getMessage(), e);
     }
@@ -461,8 +563,7 @@ public class ComponentDescription {
    */
   public boolean equals(InputStream inputStream) throws JAXBException {
 
-    JAXBContext jaxbContext = createJAXBContext();
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+    Unmarshaller unmarshaller = JAXBSupport.getUnmarshaller();
 
     //
     @SuppressWarnings("unchecked")
@@ -545,6 +646,91 @@ public class ComponentDescription {
     _tcomponent.getService().setServicefactory(value);
   }
 
+  /**
+   * <p>
+   * Returns the project relative path of the source file this component description has been generated from.
+   * </p>
+   * 
+   * @return the project relative path of the source file (may be <code>null</code>).
+   */
+  public String getSourceFile() {
+    return _sourceFile;
+  }
+
+  /**
+   * <p>
+   * Returns the source files (project relative) of all types this component description depends on, e.g. super types,
+   * service types and reference interfaces. If one of these files changes, the component description has to be
+   * regenerated.
+   * </p>
+   * 
+   * @return the source files of all types this component description depends on.
+   */
+  public Set<String> getDependencies() {
+    return Collections.unmodifiableSet(_dependencies);
+  }
+
+  /**
+   * <p>
+   * Records a dependency to the given type. Only source types of the same project are recorded, types from the
+   * classpath can not change during an incremental build.
+   * </p>
+   * 
+   * @param typeBinding
+   *          the type binding (may be <code>null</code>)
+   */
+  public void addDependency(ITypeBinding typeBinding) {
+
+    //
+    if (typeBinding == null || _project == null) {
+      return;
+    }
+
+    //
+    IJavaElement javaElement = typeBinding.getErasure().getJavaElement();
+    if (javaElement instanceof IType && !((IType) javaElement).isBinary()) {
+
+      //
+      IResource resource = javaElement.getResource();
+      if (resource != null && _project.equals(resource.getProject())) {
+        String path = resource.getProjectRelativePath().toPortableString();
+        if (!path.equals(_sourceFile)) {
+          _dependencies.add(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the fingerprint of this component description. The fingerprint is embedded in the generated header comment
+   * and allows to detect unchanged component descriptions without parsing the existing file.
+   * </p>
+   * 
+   * @return the fingerprint of this component description.
+   */
+  public String getFingerprint() {
+
+    // the fingerprint is computed once the component description is complete
+    if (_fingerprint == null) {
+      _fingerprint = ComponentDescriptionSerializer.fingerprint(_tcomponent);
+    }
+
+    //
+    return _fingerprint;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the compact form is enabled in the preferences of the project.
+   * </p>
+   * 
+   * @return <code>true</code> if the compact form is enabled.
+   */
+  private boolean isCompact() {
+    return _project != null && DsAnnotationPreferences.isCompactComponentDescriptionsEnabled(_project);
+  }
+
   /**
    * <p>
    * </p>
@@ -564,9 +750,8 @@ public class ComponentDescription {
    */
   public static JAXBContext createJAXBContext() throws JAXBException {
 
-    // the JAXBContext
-    return JAXBContext.newInstance(Tcomponent.class, TconfigurationPolicy.class, Timplementation.class,
-        TjavaTypes.class, Tpolicy.class, Tproperties.class, Tproperty.class, Treference.class, Tservice.class);
+    // the shared JAXBContext
+    return JAXBSupport.getJAXBContext();
   }
 
   /**
@@ -585,7 +770,9 @@ public class ComponentDescription {
     List<String> result = new LinkedList<String>();
 
     for (Object type : _typeDeclaration.superInterfaceTypes()) {
-      result.add(((Type) type).resolveBinding().getBinaryName());
+      ITypeBinding typeBinding = ((Type) type).resolveBinding();
+      addDependency(typeBinding);
+      result.add(typeBinding.getBinaryName());
     }
 
     //
@@ -614,6 +801,9 @@ public class ComponentDescription {
       return false;
     }
 
+    // the result depends on the hierarchy of the visited type
+    addDependency(typeBinding);
+
     //
     if (service.equals(typeBinding.getBinaryName())) {
       return true;
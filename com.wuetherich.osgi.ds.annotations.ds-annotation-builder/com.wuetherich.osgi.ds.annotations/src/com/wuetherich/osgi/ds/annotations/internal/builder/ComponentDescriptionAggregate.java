@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.util.PooledByteArrayOutputStream;
+
+/**
+ * <p>
+ * The {@link ComponentDescriptionAggregate} holds the component descriptions of a project that are written to the
+ * single file <code>OSGI-INF/components.xml</code> if the aggregated mode is enabled in the project preferences. The
+ * SCR schema allows to embed multiple <code>component</code> elements in an arbitrary root element.
+ * </p>
+ * <p>
+ * Each component is stored as a separate chunk (generated header comment and component element), keyed by the project
+ * relative path the component description would have in the default mode. The build state keeps using these paths, so
+ * the up-to-date check stays per component (source file and fingerprint of the header comment). The chunks are
+ * sorted by path and the file is only written once per build (see {@link #flush()}) if a chunk has been changed.
+ * </p>
+ * <p>
+ * The chunks are kept as UTF-8 encoded bytes (the serialized component descriptions are shared, the xml declaration is
+ * skipped when the file is written), so only the header comment and the component name are ever decoded.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class ComponentDescriptionAggregate {
+
+  /** the project relative path of the aggregated component descriptions */
+  public static final IPath                                         AGGREGATE_PATH         = new Path(
+                                                                                               "OSGI-INF/components.xml");
+
+  /** - */
+  private static final Charset                                      UTF_8                  = Charset.forName("UTF-8");
+
+  /** the start tag of the root element */
+  private static final byte[]                                       START_TAG              = "<components>\n"
+                                                                                               .getBytes(UTF_8);
+
+  /** the end tag of the root element */
+  private static final byte[]                                       END_TAG                = "</components>"
+                                                                                               .getBytes(UTF_8);
+
+  /** the start of a generated header comment (i.e. the start of a chunk) */
+  private static final byte[]                                       HEADER_START           = "<!--Generated by DS Annotation Builder ["
+                                                                                               .getBytes(UTF_8);
+
+  /** the start of the component element */
+  private static final byte[]                                       COMPONENT_START        = "<scr:component "
+                                                                                               .getBytes(UTF_8);
+
+  /** the start of the component name attribute */
+  private static final byte[]                                       NAME_START             = " name=\""
+                                                                                               .getBytes(UTF_8);
+
+  /** the end of a start tag */
+  private static final byte[]                                       TAG_END                = ">".getBytes(UTF_8);
+
+  /** the end of an attribute value */
+  private static final byte[]                                       QUOTE                  = "\"".getBytes(UTF_8);
+
+  /** the start of the xml declaration */
+  private static final byte[]                                       XML_DECLARATION_START  = "<?xml".getBytes(UTF_8);
+
+  /** - */
+  private static final Pattern                                      HEADER_PATTERN         = Pattern
+                                                                                               .compile(Constants.DS_ANNOTATION_BUILDER_GENERATED_REGEXP);
+
+  /** all loaded aggregates (project -> aggregate) */
+  private static final Map<IProject, ComponentDescriptionAggregate> AGGREGATES             = new HashMap<IProject, ComponentDescriptionAggregate>();
+
+  /** the project */
+  private IProject                                                  _project;
+
+  /** the chunks (path -> UTF-8 encoded header comment and component element, optionally with xml declaration) */
+  private TreeMap<String, byte[]>                                   _chunks;
+
+  /** the modification stamp of the file when it has been read or written */
+  private long                                                      _modificationStamp;
+
+  /** indicates that a chunk has been changed since the file has been read or written */
+  private boolean                                                   _dirty;
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link ComponentDescriptionAggregate}.
+   * </p>
+   * 
+   * @param project
+   * @throws CoreException
+   */
+  private ComponentDescriptionAggregate(IProject project) throws CoreException {
+    _project = project;
+    _chunks = new TreeMap<String, byte[]>();
+
+    //
+    IFile file = project.getFile(AGGREGATE_PATH);
+    _modificationStamp = file.getModificationStamp();
+    if (file.exists()) {
+      PooledByteArrayOutputStream content = PooledByteArrayOutputStream.get();
+      try {
+        content.readFrom(file.getContents(true));
+      } catch (IOException e) {
+        throw new CoreException(new Status(IStatus.ERROR, Constants.BUNDLE_ID, e.getMessage(), e));
+      }
+      parse(content);
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the aggregate of the given project. If the aggregate has not been loaded yet, it is read from the
+   * aggregated component descriptions file.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return the aggregate of the given project.
+   * @throws CoreException
+   */
+  public static synchronized ComponentDescriptionAggregate getAggregate(IProject project) throws CoreException {
+
+    //
+    ComponentDescriptionAggregate result = AGGREGATES.get(project);
+
+    //
+    if (result == null) {
+      result = new ComponentDescriptionAggregate(project);
+      AGGREGATES.put(project, result);
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Discards the aggregate of the given project.
+   * </p>
+   * 
+   * @param project
+   */
+  public static synchronized void discard(IProject project) {
+    AGGREGATES.remove(project);
+  }
+
+  /**
+   * <p>
+   * Discards the aggregate of the given project and deletes the aggregated component descriptions file if it has been
+   * generated by the builder (e.g. after the aggregated mode has been disabled).
+   * </p>
+   * 
+   * @param project
+   * @throws CoreException
+   */
+  public static void delete(IProject project) throws CoreException {
+
+    //
+    discard(project);
+
+    //
+    IFile file = project.getFile(AGGREGATE_PATH);
+    if (file.exists() && ComponentDescriptionWriter.extractSource(file) != null) {
+      file.delete(true, null);
+      ProjectBuildState.getBuildState(project).recordOwnModification(file);
+    }
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the aggregate contains a chunk for the given path with the same source file and the
+   * same fingerprint as the specified component description.
+   * </p>
+   * 
+   * @param path
+   * @param description
+   * @return <code>true</code> if the chunk of the given component description is up to date.
+   */
+  public synchronized boolean isUpToDate(IPath path, ComponentDescription description) {
+
+    //
+    byte[] chunk = _chunks.get(path.toPortableString());
+
+    //
+    if (chunk != null) {
+      Matcher matcher = HEADER_PATTERN.matcher(getHeader(chunk));
+      if (matcher.find()) {
+        return matcher.group(2).equals(description.getSourceFile())
+            && description.getFingerprint().equals(matcher.group(4));
+      }
+    }
+
+    //
+    return false;
+  }
+
+  /**
+   * <p>
+   * Sets the chunk of the given component description.
+   * </p>
+   * 
+   * @param path
+   * @param description
+   */
+  public synchronized void put(IPath path, ComponentDescription description) {
+    _chunks.put(path.toPortableString(), description.toByteArray());
+    _dirty = true;
+  }
+
+  /**
+   * <p>
+   * Removes the chunk of the given path.
+   * </p>
+   * 
+   * @param path
+   */
+  public synchronized void remove(IPath path) {
+    if (_chunks.remove(path.toPortableString()) != null) {
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the source files of all chunks.
+   * </p>
+   * 
+   * @return the source files of all chunks (path -> project relative path of the source file).
+   */
+  public synchronized Map<IPath, IPath> getSourceFiles() {
+
+    //
+    Map<IPath, IPath> result = new HashMap<IPath, IPath>();
+    for (Map.Entry<String, byte[]> entry : _chunks.entrySet()) {
+      Matcher matcher = HEADER_PATTERN.matcher(getHeader(entry.getValue()));
+      if (matcher.find()) {
+        result.put(new Path(entry.getKey()), new Path(matcher.group(2)));
+      }
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given resource is the aggregated component descriptions file.
+   * </p>
+   * 
+   * @param resource
+   * @return <code>true</code> if the given resource is the aggregated component descriptions file.
+   */
+  public static boolean isAggregate(IResource resource) {
+    return resource.getType() == IResource.FILE && AGGREGATE_PATH.equals(resource.getProjectRelativePath());
+  }
+
+  /**
+   * <p>
+   * Writes the aggregated component descriptions file if a chunk has been changed or if the file has been modified by
+   * someone else. The file is deleted if the aggregate doesn't contain any chunks.
+   * </p>
+   * 
+   * @throws CoreException
+   */
+  public synchronized void flush() throws CoreException {
+
+    //
+    IFile file = _project.getFile(AGGREGATE_PATH);
+    if (!_dirty && file.getModificationStamp() == _modificationStamp) {
+      return;
+    }
+
+    //
+    if (_chunks.isEmpty()) {
+      if (file.exists()) {
+        file.delete(true, null);
+        ProjectBuildState.getBuildState(_project).recordOwnModification(file);
+      }
+    } else {
+
+      // create the output folder if necessary
+      IFolder folder = _project.getFolder(Constants.COMPONENT_DESCRIPTION_FOLDER);
+      if (!folder.exists()) {
+        folder.create(true, true, null);
+      }
+
+      //
+      PooledByteArrayOutputStream content = PooledByteArrayOutputStream.get();
+      byte[] declaration = ComponentDescriptionSerializer.XML_DECLARATION.getBytes(UTF_8);
+      content.write(declaration, 0, declaration.length);
+      content.write('\n');
+      content.write(START_TAG, 0, START_TAG.length);
+      for (byte[] chunk : _chunks.values()) {
+        int start = getContentStart(chunk);
+        content.write(chunk, start, chunk.length - start);
+        if (chunk.length > start && chunk[chunk.length - 1] != '\n') {
+          content.write('\n');
+        }
+      }
+      content.write(END_TAG, 0, END_TAG.length);
+      content.write('\n');
+
+      //
+      ManifestModel.write(file, content.toInputStream());
+    }
+
+    //
+    _modificationStamp = file.getModificationStamp();
+    _dirty = false;
+  }
+
+  /**
+   * <p>
+   * Splits the given content of an aggregated component descriptions file into chunks.
+   * </p>
+   * 
+   * @param content
+   */
+  private void parse(PooledByteArrayOutputStream content) {
+
+    //
+    int end = content.indexOf(END_TAG, 0);
+    if (end == -1) {
+      end = content.size();
+    }
+
+    //
+    int start = content.indexOf(HEADER_START, 0);
+    while (start != -1 && start < end) {
+
+      //
+      int next = content.indexOf(HEADER_START, start + HEADER_START.length);
+      int chunkEnd = next != -1 && next < end ? next : end;
+
+      // the chunks are keyed by the component name (see ComponentDescriptionWriter.getComponentDescriptionPath())
+      int componentStart = content.indexOf(COMPONENT_START, start);
+      int tagEnd = componentStart != -1 ? content.indexOf(TAG_END, componentStart) : -1;
+      int nameStart = componentStart != -1 ? content.indexOf(NAME_START, componentStart) : -1;
+      int nameEnd = nameStart != -1 ? content.indexOf(QUOTE, nameStart + NAME_START.length) : -1;
+      if (nameEnd != -1 && nameEnd < tagEnd && tagEnd < chunkEnd) {
+        String name = unescape(new String(content.copyOfRange(nameStart + NAME_START.length, nameEnd), UTF_8));
+        _chunks.put(new Path(Constants.COMPONENT_DESCRIPTION_FOLDER).append(name + ".xml").toPortableString(),
+            content.copyOfRange(start, chunkEnd));
+      }
+
+      //
+      start = next;
+    }
+  }
+
+  /**
+   * <p>
+   * Replaces the predefined entities of the given attribute value.
+   * </p>
+   * 
+   * @param value
+   * @return the unescaped attribute value.
+   */
+  private static String unescape(String value) {
+
+    //
+    if (value.indexOf('&') == -1) {
+      return value;
+    }
+
+    //
+    return value.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">")
+        .replace("&amp;", "&");
+  }
+
+  /**
+   * <p>
+   * Returns the index of the first byte of the given chunk that follows the (optional) xml declaration. The xml
+   * declaration isn't necessarily followed by a line break (the header comment is written on the same line).
+   * </p>
+   * 
+   * @param chunk
+   * @return the index of the first byte that follows the xml declaration.
+   */
+  private static int getContentStart(byte[] chunk) {
+
+    //
+    if (chunk.length < XML_DECLARATION_START.length) {
+      return 0;
+    }
+    for (int i = 0; i < XML_DECLARATION_START.length; i++) {
+      if (chunk[i] != XML_DECLARATION_START[i]) {
+        return 0;
+      }
+    }
+
+    //
+    for (int i = XML_DECLARATION_START.length; i < chunk.length; i++) {
+      if (chunk[i] == '>') {
+        return i + 1 < chunk.length && chunk[i + 1] == '\n' ? i + 2 : i + 1;
+      }
+    }
+    return chunk.length;
+  }
+
+  /**
+   * <p>
+   * Returns the (decoded) first line of the given chunk that follows the xml declaration, i.e. the header comment.
+   * </p>
+   * 
+   * @param chunk
+   * @return the header comment of the given chunk.
+   */
+  private static String getHeader(byte[] chunk) {
+
+    //
+    int start = getContentStart(chunk);
+    int end = start;
+    while (end < chunk.length && chunk[end] != '\n') {
+      end++;
+    }
+
+    //
+    return new String(chunk, start, end - start, UTF_8);
+  }
+}
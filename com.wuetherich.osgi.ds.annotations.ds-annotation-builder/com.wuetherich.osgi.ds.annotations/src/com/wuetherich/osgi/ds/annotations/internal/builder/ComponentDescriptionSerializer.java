@@ -0,0 +1,491 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.eclipse.core.runtime.Assert;
+
+import com.wuetherich.osgi.ds.annotations.xml.Tcomponent;
+import com.wuetherich.osgi.ds.annotations.xml.Tproperties;
+import com.wuetherich.osgi.ds.annotations.xml.Tproperty;
+import com.wuetherich.osgi.ds.annotations.xml.Tprovide;
+import com.wuetherich.osgi.ds.annotations.xml.Treference;
+import com.wuetherich.osgi.ds.annotations.xml.Tservice;
+
+/**
+ * <p>
+ * Streaming {@link XMLStreamWriter}-based serializer for {@link Tcomponent} instances. The serializer covers the
+ * elements and attributes of the SCR 1.2 schema that are produced by the builder and writes the same (formatted) output
+ * as the JAXB marshaller, without the reflection and class loading overhead of JAXB.
+ * </p>
+ * <p>
+ * Setting the system property <code>com.wuetherich.osgi.ds.annotations.serializer</code> to <code>jaxb</code> switches
+ * back to JAXB marshalling (e.g. to compare both paths in benchmarks).
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class ComponentDescriptionSerializer {
+
+  /** the system property used to select the serializer */
+  public static final String            SERIALIZER_PROPERTY   = "com.wuetherich.osgi.ds.annotations.serializer";
+
+  /** the value of the system property that selects JAXB marshalling */
+  public static final String            SERIALIZER_JAXB       = "jaxb";
+
+  /** the SCR namespace */
+  public static final String            SCR_NAMESPACE         = "http://www.osgi.org/xmlns/scr/v1.2.0";
+
+  /** the SCR namespace prefix */
+  public static final String            SCR_PREFIX            = "scr";
+
+  /** the xml declaration (as written by the JAXB marshaller, i.e. without a line break) */
+  static final String                   XML_DECLARATION       = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+
+  /** the indent step (as used by the JAXB marshaller) */
+  private static final String           INDENT                = "    ";
+
+  /** - */
+  private static final Charset          UTF_8                 = Charset.forName("UTF-8");
+
+  /** the algorithm used to compute fingerprints */
+  private static final String           FINGERPRINT_ALGORITHM = "SHA-1";
+
+  /** - */
+  private static final char[]           HEX_DIGITS            = "0123456789abcdef".toCharArray();
+
+  /** the (thread-safe) output factory */
+  private static final XMLOutputFactory OUTPUT_FACTORY        = XMLOutputFactory.newInstance();
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the JAXB marshaller should be used instead of this serializer.
+   * </p>
+   * 
+   * @return <code>true</code> if the JAXB marshaller should be used instead of this serializer.
+   */
+  public static boolean useJaxb() {
+    return SERIALIZER_JAXB.equalsIgnoreCase(System.getProperty(SERIALIZER_PROPERTY));
+  }
+
+  /**
+   * <p>
+   * Writes the specified component to the given output stream (UTF-8 encoded).
+   * </p>
+   * 
+   * @param tcomponent
+   *          the component to write
+   * @param header
+   *          the header that is written after the xml declaration, may be <code>null</code>
+   * @param outputStream
+   *          the output stream
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static void write(Tcomponent tcomponent, String header, OutputStream outputStream) throws IOException,
+      XMLStreamException {
+    write(tcomponent, header, outputStream, false);
+  }
+
+  /**
+   * <p>
+   * Writes the specified component to the given output stream (UTF-8 encoded). The compact form contains neither
+   * indentation nor attributes whose value equals the default value defined by the SCR schema, so it is considerably
+   * smaller than the formatted form. Both forms describe the same component and have the same fingerprint.
+   * </p>
+   * 
+   * @param tcomponent
+   *          the component to write
+   * @param header
+   *          the header that is written after the xml declaration, may be <code>null</code>
+   * @param outputStream
+   *          the output stream
+   * @param compact
+   *          <code>true</code> to write the compact form
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static void write(Tcomponent tcomponent, String header, OutputStream outputStream, boolean compact)
+      throws IOException, XMLStreamException {
+
+    Assert.isNotNull(tcomponent);
+    Assert.isNotNull(outputStream);
+
+    // the xml declaration and the header are written 'as is', the formatted form continues on a new line
+    outputStream.write(XML_DECLARATION.getBytes(UTF_8));
+    if (header != null) {
+      outputStream.write(header.getBytes(UTF_8));
+    }
+    if (!compact) {
+      outputStream.write('\n');
+    }
+
+    //
+    XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(outputStream, UTF_8.name());
+
+    try {
+
+      //
+      writeComponent(tcomponent, writer, compact);
+
+      //
+      writer.flush();
+
+    } finally {
+      writer.close();
+    }
+
+    //
+    if (!compact) {
+      outputStream.write('\n');
+    }
+    outputStream.flush();
+  }
+
+  /**
+   * <p>
+   * Returns a stable fingerprint of the specified component. The fingerprint is the hash of the canonical (formatted)
+   * xml representation of the component (without any header), so two components have the same fingerprint if and only
+   * if they are serialized to the same component element. The fingerprint doesn't depend on the output form.
+   * </p>
+   * 
+   * @param tcomponent
+   *          the component
+   * @return the fingerprint (lower case hex string)
+   */
+  public static String fingerprint(Tcomponent tcomponent) {
+
+    Assert.isNotNull(tcomponent);
+
+    try {
+
+      //
+      MessageDigest messageDigest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+
+      // the digest is computed on the fly, the xml is never materialized
+      OutputStream outputStream = new DigestOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+          // discard
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+          // discard
+        }
+      }, messageDigest);
+
+      //
+      write(tcomponent, null, outputStream);
+
+      //
+      return toHexString(messageDigest.digest());
+
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (XMLStreamException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the given digest as a (lower case) hex string.
+   * </p>
+   * 
+   * @param digest
+   * @return the given digest as a hex string.
+   */
+  static String toHexString(byte[] digest) {
+
+    //
+    char[] result = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+      result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+    }
+
+    //
+    return new String(result);
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param tcomponent
+   * @param writer
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeComponent(Tcomponent tcomponent, XMLStreamWriter writer, boolean compact)
+      throws XMLStreamException {
+
+    // the namespace declaration precedes the attributes
+    writer.writeStartElement(SCR_PREFIX, "component", SCR_NAMESPACE);
+    writer.writeNamespace(SCR_PREFIX, SCR_NAMESPACE);
+
+    // attributes (in schema order)
+    if (tcomponent.isSetEnabled() && !(compact && tcomponent.isEnabled())) {
+      writer.writeAttribute("enabled", Boolean.toString(tcomponent.isEnabled()));
+    }
+    writeAttribute(writer, "name", tcomponent.getName());
+    writeAttribute(writer, "factory", tcomponent.getFactory());
+    boolean immediateByDefault = tcomponent.getService() == null && tcomponent.getFactory() == null;
+    if (tcomponent.isSetImmediate() && !(compact && tcomponent.isImmediate() == immediateByDefault)) {
+      writer.writeAttribute("immediate", Boolean.toString(tcomponent.isImmediate()));
+    }
+    if (tcomponent.isSetConfigurationPolicy()) {
+      writeAttribute(writer, "configuration-policy", tcomponent.getConfigurationPolicy().value(), "optional", compact);
+    }
+    if (tcomponent.isSetActivate()) {
+      writeAttribute(writer, "activate", tcomponent.getActivate(), "activate", compact);
+    }
+    if (tcomponent.isSetDeactivate()) {
+      writeAttribute(writer, "deactivate", tcomponent.getDeactivate(), "deactivate", compact);
+    }
+    writeAttribute(writer, "modified", tcomponent.getModified());
+    writeAttribute(writer, "configuration-pid", tcomponent.getConfigurationPid());
+
+    // property and properties elements
+    for (Object propertyOrProperties : tcomponent.getPropertyOrProperties()) {
+      if (propertyOrProperties instanceof Tproperty) {
+        writeProperty((Tproperty) propertyOrProperties, writer, compact);
+      } else if (propertyOrProperties instanceof Tproperties) {
+        writeProperties((Tproperties) propertyOrProperties, writer, compact);
+      }
+    }
+
+    // service element
+    if (tcomponent.getService() != null) {
+      writeService(tcomponent.getService(), writer, compact);
+    }
+
+    // reference elements
+    for (Treference treference : tcomponent.getReference()) {
+      writeReference(treference, writer, compact);
+    }
+
+    // implementation element
+    if (tcomponent.getImplementation() != null) {
+      indent(writer, 1, compact);
+      writer.writeEmptyElement("implementation");
+      writeAttribute(writer, "class", tcomponent.getImplementation().getClazz());
+    }
+
+    //
+    indent(writer, 0, compact);
+    writer.writeEndElement();
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param tproperty
+   * @param writer
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeProperty(Tproperty tproperty, XMLStreamWriter writer, boolean compact)
+      throws XMLStreamException {
+
+    //
+    indent(writer, 1, compact);
+
+    //
+    if (tproperty.getValue() != null) {
+      writer.writeStartElement("property");
+    } else {
+      writer.writeEmptyElement("property");
+    }
+
+    //
+    writeAttribute(writer, "name", tproperty.getPropertyName());
+    writeAttribute(writer, "value", tproperty.getPropertyValue());
+    if (tproperty.isSetPropertyType()) {
+      writeAttribute(writer, "type", tproperty.getPropertyType().value(), "String", compact);
+    }
+
+    // the (multi-line) value is written without indentation
+    if (tproperty.getValue() != null) {
+      writer.writeCharacters(tproperty.getValue());
+      writer.writeEndElement();
+    }
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param tproperties
+   * @param writer
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeProperties(Tproperties tproperties, XMLStreamWriter writer, boolean compact)
+      throws XMLStreamException {
+    indent(writer, 1, compact);
+    writer.writeEmptyElement("properties");
+    writeAttribute(writer, "entry", tproperties.getEntry());
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param tservice
+   * @param writer
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeService(Tservice tservice, XMLStreamWriter writer, boolean compact)
+      throws XMLStreamException {
+
+    //
+    indent(writer, 1, compact);
+
+    //
+    if (tservice.getProvide().isEmpty()) {
+      writer.writeEmptyElement("service");
+    } else {
+      writer.writeStartElement("service");
+    }
+
+    //
+    if (tservice.isSetServicefactory() && !(compact && !tservice.isServicefactory())) {
+      writer.writeAttribute("servicefactory", Boolean.toString(tservice.isServicefactory()));
+    }
+
+    //
+    if (!tservice.getProvide().isEmpty()) {
+
+      for (Tprovide tprovide : tservice.getProvide()) {
+        indent(writer, 2, compact);
+        writer.writeEmptyElement("provide");
+        writeAttribute(writer, "interface", tprovide.getInterface());
+      }
+
+      //
+      indent(writer, 1, compact);
+      writer.writeEndElement();
+    }
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param treference
+   * @param writer
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeReference(Treference treference, XMLStreamWriter writer, boolean compact)
+      throws XMLStreamException {
+
+    //
+    indent(writer, 1, compact);
+    writer.writeEmptyElement("reference");
+
+    // attributes (in schema order)
+    writeAttribute(writer, "name", treference.getName());
+    writeAttribute(writer, "interface", treference.getInterface());
+    if (treference.isSetCardinality()) {
+      writeAttribute(writer, "cardinality", treference.getCardinality(), "1..1", compact);
+    }
+    if (treference.isSetPolicy()) {
+      writeAttribute(writer, "policy", treference.getPolicy().value(), "static", compact);
+    }
+    if (treference.isSetPolicyOption()) {
+      writeAttribute(writer, "policy-option", treference.getPolicyOption().value(), "reluctant", compact);
+    }
+    writeAttribute(writer, "target", treference.getTarget());
+    writeAttribute(writer, "bind", treference.getBind());
+    writeAttribute(writer, "unbind", treference.getUnbind());
+    writeAttribute(writer, "updated", treference.getUpdated());
+  }
+
+  /**
+   * <p>
+   * Writes the specified attribute if the value is not <code>null</code>.
+   * </p>
+   * 
+   * @param writer
+   * @param name
+   * @param value
+   * @throws XMLStreamException
+   */
+  private static void writeAttribute(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+    if (value != null) {
+      writer.writeAttribute(name, value);
+    }
+  }
+
+  /**
+   * <p>
+   * Writes the specified attribute unless the compact form is written and the value equals the default value.
+   * </p>
+   * 
+   * @param writer
+   * @param name
+   * @param value
+   * @param defaultValue
+   *          the default value defined by the SCR schema
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void writeAttribute(XMLStreamWriter writer, String name, String value, String defaultValue,
+      boolean compact) throws XMLStreamException {
+    if (!(compact && defaultValue.equals(value))) {
+      writer.writeAttribute(name, value);
+    }
+  }
+
+  /**
+   * <p>
+   * Starts a new line with the given indentation depth. Nothing is written for the compact form.
+   * </p>
+   * 
+   * @param writer
+   * @param depth
+   * @param compact
+   * @throws XMLStreamException
+   */
+  private static void indent(XMLStreamWriter writer, int depth, boolean compact) throws XMLStreamException {
+
+    //
+    if (compact) {
+      return;
+    }
+
+    //
+    StringBuilder builder = new StringBuilder("\n");
+    for (int i = 0; i < depth; i++) {
+      builder.append(INDENT);
+    }
+
+    //
+    writer.writeCharacters(builder.toString());
+  }
+}
@@ -11,14 +11,12 @@
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
 import java.io.InputStream;
-import java.io.StringBufferInputStream;
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamReader;
@@ -27,13 +25,13 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
-import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
 
 import com.wuetherich.osgi.ds.annotations.Constants;
-import com.wuetherich.osgi.ds.annotations.internal.util.GenericCache;
+import com.wuetherich.osgi.ds.annotations.internal.Activator;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
 
 /**
  * <p>
@@ -48,6 +46,9 @@ public class ComponentDescriptionWriter {
 
   /** - */
   private static final boolean MARK_GENERATED_COMPONENT_DESCRIPTIONS_AS_DERIVED = false;
+
+  /** the number of bytes that are read to check whether an existing component description is up to date */
+  private static final int     HEADER_LENGTH                                    = 1024;
   
 
   /**
@@ -59,7 +60,10 @@ public class ComponentDescriptionWriter {
   public static void removeDanglingComponentDescriptions(IProject project) {
 
     //
-    for (Map.Entry<IPath, List<IPath>> entry : loadProperties(project).entrySet()) {
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
+
+    //
+    for (Map.Entry<IPath, List<IPath>> entry : buildState.getGeneratedFiles().entrySet()) {
 
       try {
 
@@ -68,9 +72,9 @@ public class ComponentDescriptionWriter {
 
         //
         if (!originFile.exists()) {
-          for (IPath path : entry.getValue()) {
+          for (IPath path : buildState.removeSourceFile(entry.getKey())) {
             try {
-              project.getFile(path).delete(true, null);
+              deleteGeneratedFile(project, path);
             } catch (Exception e) {
               e.printStackTrace();
             }
@@ -80,14 +84,6 @@ public class ComponentDescriptionWriter {
         e.printStackTrace();
       }
     }
-
-    //
-    try {
-      ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(project, loadProperties(project));
-    } catch (CoreException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-    }
   }
 
   /**
@@ -101,16 +97,30 @@ public class ComponentDescriptionWriter {
   public static void writeComponentDescription(IProject project, ComponentDescription description) throws CoreException {
 
     // get the output file
-    IFile file = project.getFile(new Path(Constants.COMPONENT_DESCRIPTION_FOLDER).append(new Path(description.getName()
-        + ".xml")));
+    IFile file = project.getFile(getComponentDescriptionPath(description));
 
-    // check if the component description has changed
-    try {
-      if (file.exists() && description.equals(file.getContents(true)) && containsDsAnnotationBuilderComment(file)) {
-        return;
+    //
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
+    if (description.getSourceFile() != null) {
+      buildState.addGeneratedFile(new Path(description.getSourceFile()), file.getProjectRelativePath());
+    }
+
+    // aggregated mode: the component description is part of the aggregated component descriptions file
+    if (DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(project)) {
+      ComponentDescriptionAggregate aggregate = ComponentDescriptionAggregate.getAggregate(project);
+      if (!aggregate.isUpToDate(file.getProjectRelativePath(), description)) {
+        aggregate.put(file.getProjectRelativePath(), description);
+      }
+      if (file.exists()) {
+        file.delete(true, null);
+        buildState.recordOwnModification(file);
       }
-    } catch (JAXBException e) {
-      // simply ignore exceptions
+      return;
+    }
+
+    // check if the component description has changed (only the header of the existing file is read)
+    if (file.exists() && isUpToDate(file, description)) {
+      return;
     }
 
     // create the output folder if necessary
@@ -126,53 +136,81 @@ public class ComponentDescriptionWriter {
           file.setDerived(true, null);
         }
       }
-      file.setContents(new StringBufferInputStream(description.toXml()), IFile.FORCE, null);
+      // the serialized component description is streamed from the buffer of the current thread
+      file.setContents(description.toInputStream(), IFile.FORCE, null);
     } else {
       // write the new component description to disc
-      file.create(new StringBufferInputStream(description.toXml()), true, null);
+      file.create(description.toInputStream(), true, null);
       if (MARK_GENERATED_COMPONENT_DESCRIPTIONS_AS_DERIVED) {
         file.setDerived(true, null);
       }
     }
 
-    // finally we have to refresh the local folder
-    folder.refreshLocal(IResource.DEPTH_INFINITE, null);
-
     //
-    ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(project, loadProperties(project));
+    buildState.recordOwnModification(file);
   }
 
   /**
    * <p>
+   * Returns the project relative path of the file the given component description is written to.
    * </p>
    * 
-   * @param project
-   * @param resource
-   * @throws CoreException
+   * @param description
+   * @return the project relative path of the component description file.
    */
-  public static void deleteGeneratedFiles(IProject project, IPath resource) throws CoreException {
+  public static IPath getComponentDescriptionPath(ComponentDescription description) {
+    return new Path(Constants.COMPONENT_DESCRIPTION_FOLDER).append(new Path(description.getName() + ".xml"));
+  }
 
-    //
-    Map<IPath, List<IPath>> generatedFiles = loadProperties(project);
+  /**
+   * <p>
+   * Deletes all files that have been generated from the given source file before, except the specified ones (e.g.
+   * because a component has been renamed).
+   * </p>
+   * 
+   * @param project
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @param retainedFiles
+   *          the project relative paths of the files that have been generated in the current build
+   */
+  public static void retainGeneratedFiles(IProject project, IPath sourceFile, Collection<IPath> retainedFiles) {
 
     //
-    List<IPath> result = generatedFiles.get(resource);
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
 
     //
-    if (result != null) {
-
-      for (IPath path : result) {
+    for (IPath path : buildState.getGeneratedFiles(sourceFile)) {
+      if (!retainedFiles.contains(path)) {
+        buildState.removeGeneratedFile(path);
         try {
-          IFile file = project.getFile(path);
-          file.delete(true, null);
+          deleteGeneratedFile(project, path);
         } catch (Exception e) {
-          e.printStackTrace();
+          Activator.logError(String.format("Could not delete the component description '%s'.", path), e);
         }
       }
     }
+  }
+
+  /**
+   * <p>
+   * Reconciles the component description folder with the file system if (and only if) the workspace reports it to be
+   * out of sync. Only the folder and its direct members are checked, generated files written by the builder itself are
+   * always in sync.
+   * </p>
+   * 
+   * @param project
+   * @throws CoreException
+   */
+  public static void synchronizeComponentDescriptionFolder(IProject project) throws CoreException {
 
     //
-    ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(project, loadProperties(project));
+    IFolder folder = project.getFolder(Constants.COMPONENT_DESCRIPTION_FOLDER);
+
+    //
+    if (!folder.isSynchronized(IResource.DEPTH_ONE)) {
+      folder.refreshLocal(IResource.DEPTH_ONE, null);
+    }
   }
 
   /**
@@ -180,64 +218,136 @@ public class ComponentDescriptionWriter {
    * </p>
    * 
    * @param project
-   * @return
+   * @param resource
    * @throws CoreException
    */
-  private static Map<IPath, List<IPath>> loadProperties(IProject project) {
+  public static void deleteGeneratedFiles(IProject project, IPath resource) throws CoreException {
 
     //
-    Assert.isNotNull(project);
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
+
+    // the resource itself may be a generated file that has been deleted
+    buildState.removeGeneratedFile(resource);
 
     //
-    IFolder folder = project.getFolder(Constants.COMPONENT_DESCRIPTION_FOLDER);
-    try {
-      if (folder.exists()) {
-        folder.refreshLocal(IResource.DEPTH_INFINITE, null);
+    for (IPath path : buildState.removeSourceFile(resource)) {
+      try {
+        deleteGeneratedFile(project, path);
+      } catch (Exception e) {
+        Activator.logError(String.format("Could not delete the component description '%s'.", path), e);
       }
-    } catch (CoreException e) {
-      // noop
     }
+  }
+
+  /**
+   * <p>
+   * Writes the aggregated component descriptions file if the aggregated mode is enabled for the given project and a
+   * component description has been changed. Otherwise an aggregated component descriptions file that has been
+   * generated before is deleted. This method is called once at the end of a build.
+   * </p>
+   * 
+   * @param project
+   * @throws CoreException
+   */
+  public static void flushComponentDescriptions(IProject project) throws CoreException {
 
     //
-    GenericCache<IPath, List<IPath>> genericCache = new GenericCache<IPath, List<IPath>>() {
-      @Override
-      public List<IPath> create(IPath key) {
-        return new LinkedList<IPath>();
-      }
-    };
+    if (DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(project)) {
+      ComponentDescriptionAggregate.getAggregate(project).flush();
+    } else {
+      ComponentDescriptionAggregate.delete(project);
+    }
+  }
 
-    try {
-      //
-      if (folder.exists()) {
-        for (IResource iResource : folder.members()) {
+  /**
+   * <p>
+   * Deletes the generated component description with the given path.
+   * </p>
+   * 
+   * @param project
+   * @param path
+   *          the project relative path of the component description
+   * @throws CoreException
+   */
+  private static void deleteGeneratedFile(IProject project, IPath path) throws CoreException {
 
-          if (iResource instanceof IFile && iResource.getName().endsWith(".xml")) {
-            String source = extractSource((IFile) iResource);
-            if (source != null) {
-              genericCache.getOrCreate(new Path(source)).add(iResource.getProjectRelativePath());
-            }
-          }
-        }
-      }
-    } catch (CoreException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    // aggregated mode: the component description is part of the aggregated component descriptions file
+    if (DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(project)) {
+      ComponentDescriptionAggregate.getAggregate(project).remove(path);
     }
 
     //
-    return genericCache;
+    IFile file = project.getFile(path);
+    if (file.exists()) {
+      file.delete(true, null);
+      ProjectBuildState.getBuildState(project).recordOwnModification(file);
+    }
   }
 
   /**
    * <p>
+   * Returns <code>true</code> if the given file contains a generated header comment with the same source file and the
+   * same fingerprint as the specified component description. Only the first {@link #HEADER_LENGTH} bytes of the file
+   * are read.
    * </p>
    * 
    * @param file
+   * @param description
    * @return
-   * @throws Exception
    */
-  private static boolean containsDsAnnotationBuilderComment(IFile file) {
-    return extractSource(file) != null;
+  private static boolean isUpToDate(IFile file, ComponentDescription description) {
+
+    //
+    String header = readHeader(file);
+
+    //
+    if (header != null) {
+      Matcher matcher = REGEXP_PATTERN.matcher(header);
+      if (matcher.find()) {
+        return matcher.group(2).equals(description.getSourceFile())
+            && description.getFingerprint().equals(matcher.group(4));
+      }
+    }
+
+    //
+    return false;
+  }
+
+  /**
+   * <p>
+   * Reads the first {@link #HEADER_LENGTH} bytes of the given file.
+   * </p>
+   * 
+   * @param file
+   * @return the header or <code>null</code> if the file could not be read
+   */
+  private static String readHeader(IFile file) {
+
+    try {
+
+      //
+      InputStream inputStream = file.getContents(true);
+
+      try {
+
+        //
+        byte[] buffer = new byte[HEADER_LENGTH];
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+          length += read;
+        }
+
+        //
+        return new String(buffer, 0, length, "UTF-8");
+
+      } finally {
+        inputStream.close();
+      }
+
+    } catch (Exception e) {
+      return null;
+    }
   }
 
   /**
@@ -248,7 +358,7 @@ public class ComponentDescriptionWriter {
    * @return
    * @throws Exception
    */
-  private static String extractSource(IFile file) {
+  static String extractSource(IFile file) {
 
     //
     String result = null;
@@ -288,15 +398,4 @@ public class ComponentDescriptionWriter {
     //
     return result;
   }
-
-  private static IPath findSourceFileForComponentDescriptionPath(IProject project, IPath path) {
-    for (Map.Entry<IPath, List<IPath>> entry : loadProperties(project).entrySet()) {
-      for (IPath iPath : entry.getValue()) {
-        if (iPath.equals(path)) {
-          return entry.getKey();
-        }
-      }
-    }
-    return null;
-  }
 }
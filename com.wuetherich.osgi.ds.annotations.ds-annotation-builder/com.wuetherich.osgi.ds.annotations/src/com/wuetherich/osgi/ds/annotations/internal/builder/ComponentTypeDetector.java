@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Annotation;
+import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.IExtendedModifier;
+import org.eclipse.jdt.core.dom.ImportDeclaration;
+import org.eclipse.jdt.core.dom.Initializer;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.osgi.service.component.annotations.Component;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * Decides whether a compilation unit may declare components by looking at an AST that has been parsed
+ * <b>without</b> bindings. The simple or qualified names of the type annotations are resolved against the import
+ * declarations of the compilation unit:
+ * <ul>
+ * <li>{@link Result#NONE}: no type is annotated with <code>@Component</code>, the compilation unit does not have to be
+ * parsed with bindings.</li>
+ * <li>{@link Result#COMPONENT}: a type is annotated with the DS <code>@Component</code> annotation (single type import
+ * or fully qualified name).</li>
+ * <li>{@link Result#AMBIGUOUS}: the name can not be resolved without bindings (e.g. on-demand imports of several
+ * packages that may contain a <code>Component</code> type, or a type named <code>Component</code> declared in the
+ * compilation unit itself). The compilation unit has to be parsed with bindings.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Compilation units with syntax errors or without any type declarations are always reported as
+ * {@link Result#AMBIGUOUS}, so that they are handled by the regular (resolved) build.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class ComponentTypeDetector extends ASTVisitor {
+
+  /**
+   * <p>
+   * The result of the detection.
+   * </p>
+   */
+  public static enum Result {
+    NONE, COMPONENT, AMBIGUOUS;
+  }
+
+  /** the simple name of the component annotation */
+  private static final String COMPONENT_SIMPLE_NAME    = Component.class.getSimpleName();
+
+  /** the qualified name of the component annotation */
+  private static final String COMPONENT_QUALIFIED_NAME = Component.class.getName();
+
+  /** the qualified name of the single type import of 'Component' (<code>null</code> if none) */
+  private String              _singleTypeImport;
+
+  /** the packages imported on demand */
+  private Set<String>         _onDemandImports         = new HashSet<String>();
+
+  /** the simple names of the types declared in the compilation unit */
+  private Set<String>         _declaredTypes           = new HashSet<String>();
+
+  /** the annotation names used on type declarations */
+  private Set<String>         _typeAnnotations         = new HashSet<String>();
+
+  /**
+   * <p>
+   * Detects whether the given (unresolved) compilation unit may declare components.
+   * </p>
+   * 
+   * @param compilationUnit
+   *          the compilation unit
+   * @return the result of the detection
+   */
+  public static Result detect(CompilationUnit compilationUnit) {
+
+    // syntax errors or an empty AST (see issue 11): fall back to the resolved build
+    if (hasErrors(compilationUnit) || compilationUnit.types().isEmpty()) {
+      return Result.AMBIGUOUS;
+    }
+
+    //
+    ComponentTypeDetector detector = new ComponentTypeDetector();
+    compilationUnit.accept(detector);
+    return detector.getResult();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(ImportDeclaration node) {
+
+    // static imports are handled like type imports, as they may import member types named 'Component'
+    String name = node.getName().getFullyQualifiedName();
+    if (node.isOnDemand()) {
+      _onDemandImports.add(name);
+    } else if (name.equals(COMPONENT_SIMPLE_NAME) || name.endsWith("." + COMPONENT_SIMPLE_NAME)) {
+      _singleTypeImport = name;
+    }
+
+    //
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(TypeDeclaration node) {
+
+    //
+    _declaredTypes.add(node.getName().getIdentifier());
+
+    //
+    for (Object modifier : node.modifiers()) {
+      if (((IExtendedModifier) modifier).isAnnotation()) {
+        _typeAnnotations.add(((Annotation) modifier).getTypeName().getFullyQualifiedName());
+      }
+    }
+
+    //
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(AnnotationTypeDeclaration node) {
+    _declaredTypes.add(node.getName().getIdentifier());
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(EnumDeclaration node) {
+    _declaredTypes.add(node.getName().getIdentifier());
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(MethodDeclaration node) {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(FieldDeclaration node) {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(Initializer node) {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(Block node) {
+    return false;
+  }
+
+  /**
+   * <p>
+   * Returns the result of the detection.
+   * </p>
+   * 
+   * @return the result of the detection.
+   */
+  private Result getResult() {
+
+    //
+    Result result = Result.NONE;
+
+    //
+    for (String typeAnnotation : _typeAnnotations) {
+
+      //
+      if (typeAnnotation.equals(COMPONENT_QUALIFIED_NAME)) {
+        result = Result.COMPONENT;
+      }
+
+      // simple name
+      else if (typeAnnotation.equals(COMPONENT_SIMPLE_NAME)) {
+
+        // a single type import always wins
+        if (_singleTypeImport != null) {
+          if (_singleTypeImport.equals(COMPONENT_QUALIFIED_NAME)) {
+            result = Result.COMPONENT;
+          }
+        }
+
+        // the name may refer to a type declared in this compilation unit or to one of the types imported on demand
+        else if (_onDemandImports.contains(Constants.DS_ANNOTATION_PACKAGE)) {
+          if (_onDemandImports.size() > 1 || _declaredTypes.contains(COMPONENT_SIMPLE_NAME)) {
+            return Result.AMBIGUOUS;
+          }
+          result = Result.COMPONENT;
+        }
+      }
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given compilation unit has syntax errors.
+   * </p>
+   * 
+   * @param compilationUnit
+   * @return <code>true</code> if the given compilation unit has syntax errors.
+   */
+  private static boolean hasErrors(CompilationUnit compilationUnit) {
+
+    //
+    for (IProblem problem : compilationUnit.getProblems()) {
+      if (problem.isError()) {
+        return true;
+      }
+    }
+
+    //
+    return false;
+  }
+}
@@ -11,7 +11,7 @@
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -20,8 +20,12 @@ import java.util.Stack;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.Annotation;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.IExtendedModifier;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.Initializer;
 import org.eclipse.jdt.core.dom.MarkerAnnotation;
 import org.eclipse.jdt.core.dom.MemberValuePair;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
@@ -42,6 +46,9 @@ import com.wuetherich.osgi.ds.annotations.xml.Tproperty;
 
 /**
  * <p>
+ * DS annotations only appear on type and method declarations, so the {@link DsAnnotationAstVisitor} does not descend
+ * into method bodies, initializers and field declarations. Types that don't carry any annotation can not be components,
+ * only their member types are visited.
  * </p>
  * 
  * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
@@ -68,7 +75,8 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
   public DsAnnotationAstVisitor() {
 
     // create the description map
-    _descriptions = new HashMap<TypeDeclaration, ComponentDescription>();
+    // the component descriptions are kept in declaration order
+    _descriptions = new LinkedHashMap<TypeDeclaration, ComponentDescription>();
 
     //
     _currentTypeDeclaration = new Stack<TypeDeclaration>();
@@ -102,6 +110,16 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
   public boolean visit(TypeDeclaration node) {
     _hasTypes = true;
     _currentTypeDeclaration.push(node);
+
+    // types without annotations can not be components: only visit the member types
+    if (!hasAnnotations(node)) {
+      for (TypeDeclaration memberType : node.getTypes()) {
+        memberType.accept(this);
+      }
+      return false;
+    }
+
+    //
     return true;
   }
 
@@ -130,6 +148,53 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
     _currentMethodDeclaration = null;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(Block node) {
+
+    // method bodies never contain DS annotations
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(Initializer node) {
+    return false;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean visit(FieldDeclaration node) {
+    return false;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given type declaration carries at least one annotation.
+   * </p>
+   * 
+   * @param node
+   * @return <code>true</code> if the given type declaration carries at least one annotation.
+   */
+  private boolean hasAnnotations(TypeDeclaration node) {
+
+    //
+    for (Object modifier : node.modifiers()) {
+      if (((IExtendedModifier) modifier).isAnnotation()) {
+        return true;
+      }
+    }
+
+    //
+    return false;
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -236,10 +301,12 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
             } else if (node.isMarkerAnnotation()) {
 
               //
-              String service = _currentMethodDeclaration.resolveBinding().getParameterTypes()[0].getBinaryName();
+              ITypeBinding serviceType = _currentMethodDeclaration.resolveBinding().getParameterTypes()[0];
+              String service = serviceType.getBinaryName();
               String bind = _currentMethodDeclaration.getName().getFullyQualifiedName();
 
               //
+              getCurrentComponentDescription().addDependency(serviceType);
               getCurrentComponentDescription().addReference(service, bind, null, null, null, null, null, null, null);
             }
           }
@@ -304,7 +371,7 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
     String updated = null;
     String target = null;
 
-    String service = _currentMethodDeclaration.resolveBinding().getParameterTypes()[0].getBinaryName();
+    ITypeBinding serviceType = _currentMethodDeclaration.resolveBinding().getParameterTypes()[0];
     String bind = _currentMethodDeclaration.getName().getFullyQualifiedName();
 
     for (Object object : normalAnnotation.values()) {
@@ -333,7 +400,7 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
       }
       //
       else if ("service".equals(valueName)) {
-        service = ((ITypeBinding) pair.resolveMemberValuePairBinding().getValue()).getBinaryName();
+        serviceType = (ITypeBinding) pair.resolveMemberValuePairBinding().getValue();
       }
       //
       else if ("unbind".equals(valueName)) {
@@ -350,8 +417,9 @@ public class DsAnnotationAstVisitor extends ASTVisitor {
     }
 
     //
-    getCurrentComponentDescription().addReference(service, bind, name, cardinality, policy, policyOption, unbind,
-        updated, target);
+    getCurrentComponentDescription().addDependency(serviceType);
+    getCurrentComponentDescription().addReference(serviceType.getBinaryName(), bind, name, cardinality, policy,
+        policyOption, unbind, updated, target);
   }
 
   /**
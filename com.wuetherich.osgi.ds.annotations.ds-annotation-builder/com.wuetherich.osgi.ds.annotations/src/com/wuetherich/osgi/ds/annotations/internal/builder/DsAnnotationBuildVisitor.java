@@ -10,40 +10,152 @@
  ******************************************************************************/
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
 import org.eclipse.core.resources.IResourceDeltaVisitor;
 import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.jdt.core.IClasspathEntry;
 import org.eclipse.jdt.core.ICompilationUnit;
-import org.eclipse.jdt.core.IJavaElement;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.compiler.IProblem;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTRequestor;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 
 import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.Activator;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
 import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationProblem;
+import com.wuetherich.osgi.ds.annotations.internal.builder.ProjectBuildState.ContentStamp;
 
 /**
  * <p>
+ * The {@link DsAnnotationBuildVisitor} collects the java source files of a build and generates the component
+ * descriptions in {@link #buildComponentDescriptions(IProgressMonitor)}. The source files are parsed and analyzed in
+ * one batch with a shared binding environment, the fingerprints of the resulting component descriptions (that don't
+ * need any bindings) are computed in parallel on a bounded {@link ForkJoinPool}. All workspace modifications (writing
+ * and deleting files, updating markers) are performed by the calling thread. The results are committed in the order
+ * the source files have been visited, so the output is identical to a sequential build.
+ * </p>
+ * <p>
+ * The number of fingerprint threads can be configured with the system property
+ * <code>com.wuetherich.osgi.ds.annotations.parallelism</code> (default: number of available processors, <code>1</code>
+ * disables parallel processing). The pool is created once with the configured size and is shared by all builds.
+ * </p>
+ * <p>
+ * The build reports one unit of work per source file and checks for cancellation between files and during AST
+ * creation. If the build is canceled, an {@link OperationCanceledException} is thrown; all files that have been
+ * committed up to this point are consistent with the build state.
+ * </p>
+ * <p>
+ * The collected compilation units are parsed in two phases: a first parse without bindings detects the compilation
+ * units that may declare components (see {@link ComponentTypeDetector}), only these compilation units are parsed with
+ * bindings. The number of avoided resolved parses is recorded in the {@link BuildStatistics}.
+ * </p>
+ * <p>
+ * Incremental builds skip source files whose content has not changed since they have been analyzed the last time (see
+ * {@link #skipUnchangedSourceFiles()}).
  * </p>
  * 
  * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
  */
 public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDeltaVisitor {
 
+  /** the system property used to configure the number of fingerprint threads */
+  public static final String               PARALLELISM_PROPERTY = "com.wuetherich.osgi.ds.annotations.parallelism";
+
+  /** the algorithm used to compute content hashes */
+  private static final String              HASH_ALGORITHM       = "SHA-1";
+
+  /** the (lazily created) pool that computes the fingerprints, shared by all builds */
+  private static ForkJoinPool              FINGERPRINT_POOL;
+
+  /** the project */
+  private IProject                         _project;
+
+  /** the source folders of the project */
+  private SourceFolders                    _sourceFolders;
+
+  /** the collected compilation units (compilation unit -> resource) */
+  private Map<ICompilationUnit, IResource> _compilationUnits    = new LinkedHashMap<ICompilationUnit, IResource>();
+
+  /** the source files that can not contain any DS annotations */
+  private List<IResource>                  _skippedResources    = new LinkedList<IResource>();
+
+  /** the removed resources */
+  private List<IResource>                  _removedResources    = new LinkedList<IResource>();
+
+  /** the content hashes computed by {@link #skipUnchangedSourceFiles()} (reused when the source files are committed) */
+  private Map<IResource, String>           _contentHashes       = new HashMap<IResource, String>();
+
+  /** indicates that an xml file in the component description folder that isn't generated has been modified */
+  private boolean                          _foreignComponentDescriptionsChanged;
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link DsAnnotationBuildVisitor}.
+   * </p>
+   * 
+   * @param project
+   *          the project to build
+   */
+  public DsAnnotationBuildVisitor(IProject project) {
+    Assert.isNotNull(project);
+
+    //
+    _project = project;
+
+    // the source folders are computed once per build
+    _sourceFolders = SourceFolders.create(JavaCore.create(project));
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public boolean visit(IResource resource) throws CoreException {
 
+    // prune folders that can not contain any source files
+    if (resource.getType() == IResource.FOLDER) {
+      return _sourceFolders.mayContainSourceFiles(resource.getProjectRelativePath());
+    }
+
     //
     if (resource.getType() != IResource.FILE) {
       return true;
@@ -62,11 +174,16 @@ public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDelt
   @Override
   public boolean visit(IResourceDelta delta) throws CoreException {
 
+    // xml files that aren't generated have to be validated against the wildcard Service-Component header
+    if (isForeignComponentDescription(delta)) {
+      _foreignComponentDescriptionsChanged = true;
+    }
+
     //
     if (delta.getKind() == IResourceDelta.ADDED) {
 
       //
-      return visit(delta.getResource());
+      return visit(delta.getResource()) || isComponentDescriptionFolder(delta.getResource());
 
     } else if (delta.getKind() == IResourceDelta.REMOVED) {
 
@@ -77,17 +194,71 @@ public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDelt
       // delta.getResource().getProjectRelativePath());
       // }
 
-      //
-      ComponentDescriptionWriter.deleteGeneratedFiles(delta.getResource().getProject(), delta.getResource()
-          .getProjectRelativePath());
+      // the generated files are deleted in buildComponentDescriptions()
+      _removedResources.add(delta.getResource());
 
     } else if (delta.getKind() == IResourceDelta.CHANGED) {
-      return visit(delta.getResource());
+
+      // the component description folder is always visited to keep track of removed component descriptions
+      return visit(delta.getResource()) || isComponentDescriptionFolder(delta.getResource());
     }
 
     return true;
   }
 
+  /**
+   * <p>
+   * Returns <code>true</code> if an xml file in the component description folder that hasn't been generated by the
+   * builder has been added, removed or modified since the last build.
+   * </p>
+   * 
+   * @return <code>true</code> if a foreign xml file in the component description folder has been modified.
+   */
+  public boolean isForeignComponentDescriptionsChanged() {
+    return _foreignComponentDescriptionsChanged;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given delta describes an added, removed or modified (content) xml file in the
+   * component description folder that hasn't been generated by the builder.
+   * </p>
+   * 
+   * @param delta
+   * @return <code>true</code> if the given delta describes a modified foreign xml file.
+   */
+  private boolean isForeignComponentDescription(IResourceDelta delta) {
+
+    //
+    IResource resource = delta.getResource();
+    if (resource.getType() != IResource.FILE || !"xml".equals(resource.getFileExtension())
+        || !isComponentDescriptionFolder(resource.getParent())
+        || ComponentDescriptionAggregate.isAggregate(resource)) {
+      return false;
+    }
+
+    // marker changes (e.g. the warnings created for foreign files) don't require a validation
+    if (delta.getKind() == IResourceDelta.CHANGED
+        && (delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED)) == 0) {
+      return false;
+    }
+
+    //
+    return ProjectBuildState.getBuildState(_project).getSourceFile(resource.getProjectRelativePath()) == null;
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param resource
+   * @return <code>true</code> if the given resource is the component description folder.
+   */
+  private boolean isComponentDescriptionFolder(IResource resource) {
+    return resource.getType() == IResource.FOLDER
+        && resource.getProjectRelativePath().equals(new Path(Constants.COMPONENT_DESCRIPTION_FOLDER));
+  }
+
   /**
    * <p>
    * </p>
@@ -97,77 +268,562 @@ public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDelt
    */
   private void handle(IResource resource) throws CoreException {
 
-    // Only handle Java source files here...
-    if (!resource.getName().endsWith(".java")) {
+    // Only handle Java source files in source folders here (without accessing the java model)...
+    if (!resource.getName().endsWith(".java") || !_sourceFolders.isSourceFile(resource.getProjectRelativePath())) {
       return;
     }
 
-    // get the corresponding java element
-    IJavaElement element = JavaCore.create(resource);
-    IJavaProject javaProject = JavaCore.create(resource.getProject());
-    if (element == null || !javaProject.isOnClasspath(element) || !element.isStructureKnown()) {
+    // get the corresponding compilation unit
+    ICompilationUnit compilationUnit = JavaCore.createCompilationUnitFrom((IFile) resource);
+    if (compilationUnit == null) {
+      return;
+    }
+
+    // files that can not contain any DS annotations don't have to be parsed, but component descriptions that have
+    // been generated from them before have to be removed
+    if (!DsAnnotationScanner.mayContainDsAnnotations((IFile) resource)) {
+      _skippedResources.add(resource);
+      return;
+    }
+
+    // the compilation unit is parsed later on together with all the other collected compilation units
+    _compilationUnits.put(compilationUnit, resource);
+  }
+
+  /**
+   * <p>
+   * Adds the given source file (e.g. a file that is compiled by the java builder).
+   * </p>
+   * 
+   * @param file
+   * @throws CoreException
+   */
+  public void addSourceFile(IFile file) throws CoreException {
+    handle(file);
+  }
+
+  /**
+   * <p>
+   * Adds all source files of the build state that don't exist anymore, so that the component descriptions generated
+   * from them are removed.
+   * </p>
+   */
+  public void addRemovedSourceFiles() {
+
+    //
+    for (IPath sourceFile : ProjectBuildState.getBuildState(_project).getGeneratedFiles().keySet()) {
+      IFile file = _project.getFile(sourceFile);
+      if (!file.exists()) {
+        _removedResources.add(file);
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Removes all collected source files whose content has not changed since they have been analyzed successfully the
+   * last time. Only the files are skipped, no analysis result is cached: the component descriptions and the
+   * (persistent) problem markers generated from these files are left untouched. Unchanged modification stamps are
+   * detected without reading the file, otherwise the content hash is compared (if it is known: full builds don't read
+   * the source files to compute it).
+   * </p>
+   * <p>
+   * This method has to be called before {@link #addDependentSourceFiles()}: dependent source files have to be rebuilt
+   * even if their content has not changed.
+   * </p>
+   */
+  public void skipUnchangedSourceFiles() {
+
+    //
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(_project);
+    buildState.validateContentStamps(getEnvironmentStamp());
+
+    //
+    for (Iterator<IResource> iterator = _compilationUnits.values().iterator(); iterator.hasNext();) {
+
+      //
+      IFile file = (IFile) iterator.next();
+      ContentStamp contentStamp = buildState.getContentStamp(file.getProjectRelativePath());
+      if (contentStamp == null) {
+        continue;
+      }
+
+      // O(1): the file has not been modified at all
+      if (contentStamp.getModificationStamp() == file.getModificationStamp()) {
+        iterator.remove();
+        BuildStatistics.unchangedSourceFile();
+        continue;
+      }
+
+      // the file has been written with identical content (the hash is only computed for files whose modification stamp
+      // has changed, it is reused when the file is committed)
+      long modificationStamp = file.getModificationStamp();
+      String contentHash = getContentHash(file);
+      if (contentHash != null && contentHash.equals(contentStamp.getContentHash())) {
+        buildState.setContentStamp(file.getProjectRelativePath(), new ContentStamp(modificationStamp, contentHash));
+        iterator.remove();
+        BuildStatistics.unchangedSourceFile();
+      } else if (contentHash != null) {
+        _contentHashes.put(file, contentHash);
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Adds all source files that depend on one of the collected (i.e. added, changed or removed) source files, so that
+   * component descriptions whose super types, service types or reference interfaces have been changed are regenerated.
+   * </p>
+   * 
+   * @throws CoreException
+   */
+  public void addDependentSourceFiles() throws CoreException {
+
+    //
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(_project);
+
+    // the collected source files
+    Set<IPath> sourceFiles = new LinkedHashSet<IPath>();
+    for (IResource resource : _compilationUnits.values()) {
+      sourceFiles.add(resource.getProjectRelativePath());
+    }
+    for (IResource resource : _skippedResources) {
+      sourceFiles.add(resource.getProjectRelativePath());
+    }
+    for (IResource resource : _removedResources) {
+      sourceFiles.add(resource.getProjectRelativePath());
+    }
+
+    //
+    for (IPath sourceFile : new ArrayList<IPath>(sourceFiles)) {
+      for (IPath dependentSourceFile : buildState.getDependentSourceFiles(sourceFile)) {
+        IFile file = _project.getFile(dependentSourceFile);
+        if (sourceFiles.add(dependentSourceFile) && file.exists()) {
+          handle(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Parses and analyzes all collected compilation units and generates the component descriptions. This method has to
+   * be called from within a workspace operation (see {@link DsAnnotationBuilder}), so that all resource modifications
+   * of a build are reported in a single resource delta.
+   * </p>
+   * 
+   * @param monitor
+   *          the progress monitor (may be <code>null</code>)
+   * @throws CoreException
+   */
+  public void buildComponentDescriptions(IProgressMonitor monitor) throws CoreException, OperationCanceledException {
+
+    //
+    if (_compilationUnits.isEmpty() && _skippedResources.isEmpty() && _removedResources.isEmpty()) {
       return;
     }
 
-    // delete all markers
     try {
-      resource.deleteMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, true, IResource.DEPTH_ZERO);
-    } catch (CoreException e1) {
-      e1.printStackTrace();
+
+      // one unit of work per resource
+      SubMonitor progress = SubMonitor.convert(monitor, "Generating component descriptions", _removedResources.size()
+          + _skippedResources.size() + _compilationUnits.size());
+
+      // delete the files generated from removed resources first (a component description may have been moved to
+      // another source file)
+      for (IResource resource : _removedResources) {
+        checkCanceled(progress);
+        ProjectBuildState.getBuildState(_project).removeContentStamp(resource.getProjectRelativePath());
+        ComponentDescriptionWriter.deleteGeneratedFiles(_project, resource.getProjectRelativePath());
+        progress.worked(1);
+      }
+
+      // compilation units that don't declare any component are handled like skipped files
+      detectComponentTypes(progress);
+
+      //
+      for (IResource resource : _skippedResources) {
+        checkCanceled(progress);
+        ProjectBuildState.getBuildState(_project).removeContentStamp(resource.getProjectRelativePath());
+        deleteMarkers(resource);
+        ComponentDescriptionWriter.deleteGeneratedFiles(_project, resource.getProjectRelativePath());
+        progress.worked(1);
+      }
+
+      //
+      if (!_compilationUnits.isEmpty()) {
+
+        //
+        ICompilationUnit[] compilationUnits = _compilationUnits.keySet().toArray(
+            new ICompilationUnit[_compilationUnits.size()]);
+
+        //
+        BuildStatistics.resolvedParses(compilationUnits.length);
+
+        //
+        if (getParallelism() > 1 && compilationUnits.length > 1) {
+          buildParallel(compilationUnits, progress);
+        } else {
+          buildSequential(compilationUnits, progress.newChild(compilationUnits.length));
+        }
+      }
+
+    } catch (OperationCanceledException e) {
+
+      // the complete delta is delivered again with the next build: the content stamps of this build are discarded, so
+      // that the dependent source files are collected again (component descriptions that have already been written are
+      // skipped by the fingerprint check)
+      ProjectBuildState buildState = ProjectBuildState.getBuildState(_project);
+      for (IResource resource : _compilationUnits.values()) {
+        buildState.removeContentStamp(resource.getProjectRelativePath());
+      }
+      throw e;
+
+    } finally {
+
+      //
+      _compilationUnits.clear();
+      _skippedResources.clear();
+      _removedResources.clear();
+      _contentHashes.clear();
+    }
+  }
+
+  /**
+   * <p>
+   * Parses all collected compilation units without bindings and moves the ones that can not declare any component to
+   * the skipped resources.
+   * </p>
+   * 
+   * @param monitor
+   *          the monitor used to check for cancellation
+   */
+  private void detectComponentTypes(final IProgressMonitor monitor) {
+
+    //
+    if (_compilationUnits.isEmpty()) {
+      return;
+    }
+
+    //
+    ICompilationUnit[] compilationUnits = _compilationUnits.keySet().toArray(
+        new ICompilationUnit[_compilationUnits.size()]);
+
+    //
+    createParser(compilationUnits[0].getJavaProject(), false).createASTs(compilationUnits, new String[0],
+        new ASTRequestor() {
+          @Override
+          public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+            checkCanceled(monitor);
+            BuildStatistics.unresolvedParse();
+
+            //
+            switch (ComponentTypeDetector.detect(ast)) {
+            case NONE:
+              BuildStatistics.avoidedResolvedParse();
+              _skippedResources.add(_compilationUnits.remove(source));
+              break;
+            case AMBIGUOUS:
+              BuildStatistics.ambiguousDetection();
+              break;
+            default:
+              break;
+            }
+          }
+        }, null);
+  }
+
+  /**
+   * <p>
+   * Returns the configured number of fingerprint threads.
+   * </p>
+   * 
+   * @return the configured number of fingerprint threads.
+   */
+  public static int getParallelism() {
+
+    //
+    int result = Runtime.getRuntime().availableProcessors();
+
+    //
+    String value = System.getProperty(PARALLELISM_PROPERTY);
+    if (value != null) {
+      try {
+        result = Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        // use the default
+      }
+    }
+
+    //
+    return Math.max(1, result);
+  }
+
+  /**
+   * <p>
+   * Parses the given compilation units in one batch with a shared binding environment. Each AST is committed and
+   * dropped as soon as it has been created. The monitor is passed to the AST parser that reports one unit of work per
+   * compilation unit.
+   * </p>
+   * 
+   * @param compilationUnits
+   * @param monitor
+   * @throws CoreException
+   */
+  private void buildSequential(ICompilationUnit[] compilationUnits, final IProgressMonitor monitor)
+      throws CoreException {
+
+    //
+    final CoreException[] exception = new CoreException[1];
+
+    //
+    createParser(compilationUnits[0].getJavaProject(), true).createASTs(compilationUnits, new String[0],
+        new ASTRequestor() {
+          @Override
+          public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+            try {
+              checkCanceled(monitor);
+              if (exception[0] == null) {
+                commit(analyze(ast, _compilationUnits.get(source)));
+              }
+            } catch (CoreException e) {
+              exception[0] = e;
+            }
+          }
+        }, monitor);
+
+    //
+    if (exception[0] != null) {
+      throw exception[0];
     }
+  }
+
+  /**
+   * <p>
+   * Parses the given compilation units in one batch with a shared binding environment (like
+   * {@link #buildSequential(ICompilationUnit[], IProgressMonitor)}). The ASTs are analyzed by the calling thread, as
+   * the bindings are resolved lazily against the (not thread safe) environment of the parser, and are dropped right
+   * away. Only the fingerprints of the resulting component descriptions are computed in parallel, the component
+   * descriptions that are not up to date are serialized when they are written. The results are committed by the
+   * calling thread in the original order as soon as their fingerprints have been computed.
+   * </p>
+   * 
+   * @param compilationUnits
+   * @param progress
+   * @throws CoreException
+   */
+  private void buildParallel(ICompilationUnit[] compilationUnits, final SubMonitor progress) throws CoreException {
+
+    // the parser only checks for cancellation (progress is reported per committed compilation unit)
+    final IProgressMonitor cancelMonitor = new NullProgressMonitor() {
+      @Override
+      public boolean isCanceled() {
+        return progress.isCanceled();
+      }
+    };
 
     //
-    parse((ICompilationUnit) element, resource);
+    final ForkJoinPool pool = getFingerprintPool();
+    final LinkedList<Future<AnalyzedCompilationUnit>> pending = new LinkedList<Future<AnalyzedCompilationUnit>>();
+    final CoreException[] exception = new CoreException[1];
+
+    //
+    createParser(compilationUnits[0].getJavaProject(), true).createASTs(compilationUnits, new String[0],
+        new ASTRequestor() {
+          @Override
+          public void acceptAST(ICompilationUnit source, CompilationUnit ast) {
+            checkCanceled(progress);
+            if (exception[0] != null) {
+              return;
+            }
+
+            // analyze the AST and compute the fingerprints of the component descriptions on a worker thread
+            final AnalyzedCompilationUnit analyzedCompilationUnit = analyze(ast, _compilationUnits.get(source));
+            pending.add(pool.submit(new Callable<AnalyzedCompilationUnit>() {
+              @Override
+              public AnalyzedCompilationUnit call() throws Exception {
+                computeFingerprints(analyzedCompilationUnit);
+                return analyzedCompilationUnit;
+              }
+            }));
+
+            // commit the results whose fingerprints have already been computed
+            try {
+              commit(pending, false, progress);
+            } catch (CoreException e) {
+              exception[0] = e;
+            }
+          }
+        }, cancelMonitor);
+
+    //
+    if (exception[0] != null) {
+      throw exception[0];
+    }
+
+    // commit the remaining results
+    commit(pending, true, progress);
+  }
+
+  /**
+   * <p>
+   * Returns the pool that computes the fingerprints. The pool is created once with the configured parallelism (see
+   * {@link #getParallelism()}) and is shared by all builds.
+   * </p>
+   * 
+   * @return the pool that computes the fingerprints.
+   */
+  private static synchronized ForkJoinPool getFingerprintPool() {
+
+    //
+    if (FINGERPRINT_POOL == null) {
+      FINGERPRINT_POOL = new ForkJoinPool(getParallelism());
+    }
+
+    //
+    return FINGERPRINT_POOL;
   }
 
   /**
    * <p>
+   * Commits the pending results in the original order.
    * </p>
    * 
-   * @param icompilationUnit
+   * @param pending
+   *          the pending results
+   * @param wait
+   *          <code>true</code> if all pending results have to be committed, <code>false</code> if only the leading
+   *          results whose fingerprints have already been computed are committed
+   * @param progress
    * @throws CoreException
    */
-  private void parse(ICompilationUnit icompilationUnit, IResource resource) throws CoreException {
+  private void commit(LinkedList<Future<AnalyzedCompilationUnit>> pending, boolean wait, SubMonitor progress)
+      throws CoreException {
+
+    try {
+
+      //
+      while (!pending.isEmpty() && (wait || pending.getFirst().isDone())) {
+        AnalyzedCompilationUnit analyzedCompilationUnit = pending.removeFirst().get();
+        checkCanceled(progress);
+        commit(analyzedCompilationUnit);
+        progress.worked(1);
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OperationCanceledException();
+    } catch (ExecutionException e) {
+      throw new CoreException(new Status(IStatus.ERROR, Constants.BUNDLE_ID, String.valueOf(e.getCause()
+          .getMessage()), e.getCause()));
+    }
+  }
+
+  /**
+   * <p>
+   * Computes the fingerprints of the component descriptions of the given analyzed compilation unit, so that the
+   * committing thread only has to compare them with the headers of the existing component descriptions. The component
+   * descriptions are not serialized: most of them are up to date and are not written at all.
+   * </p>
+   * 
+   * @param analyzedCompilationUnit
+   */
+  private static void computeFingerprints(AnalyzedCompilationUnit analyzedCompilationUnit) {
 
-    // create the AST
-    CompilationUnit compilationUnit = createAst(icompilationUnit);
+    //
+    if (analyzedCompilationUnit.getComponentDescriptions() == null) {
+      return;
+    }
+
+    //
+    for (ComponentDescription description : analyzedCompilationUnit.getComponentDescriptions()) {
+      if (!description.hasProblems()) {
+        description.getFingerprint();
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Analyzes the given AST. This method does not modify the workspace.
+   * </p>
+   * 
+   * @param compilationUnit
+   * @param resource
+   * @return the analyzed compilation unit
+   */
+  private AnalyzedCompilationUnit analyze(CompilationUnit compilationUnit, IResource resource) {
 
     // do not process files with compile errors
     if (hasErrors(compilationUnit)) {
-      return;
+      return new AnalyzedCompilationUnit(resource, null, false);
     }
 
     // visit the AST
     DsAnnotationAstVisitor myAstVisitor = new DsAnnotationAstVisitor();
     compilationUnit.accept(myAstVisitor);
 
+    //
+    return new AnalyzedCompilationUnit(resource, myAstVisitor.getComponentDescriptions(), myAstVisitor.hasTypes());
+  }
+
+  /**
+   * <p>
+   * Writes the component descriptions and markers of the given analyzed compilation unit to the workspace.
+   * </p>
+   * 
+   * @param analyzedCompilationUnit
+   * @throws CoreException
+   */
+  private void commit(AnalyzedCompilationUnit analyzedCompilationUnit) throws CoreException {
+
+    //
+    IResource resource = analyzedCompilationUnit.getResource();
+
+    // delete all markers
+    deleteMarkers(resource);
+
+    // do not process files with compile errors (the result may change without changing the file)
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(resource.getProject());
+    if (analyzedCompilationUnit.getComponentDescriptions() == null) {
+      buildState.removeContentStamp(resource.getProjectRelativePath());
+      return;
+    }
+
     // Insane hack: we have to check whether types has been parsed or not
     // Under some circumstances the JDT AST is empty and getComponentDescriptions() returns an empty list
     // bug: https://github.com/wuetherich/ds-annotation-builder/issues/11
-    if (myAstVisitor.getComponentDescriptions().isEmpty() && myAstVisitor.hasTypes()) {
+    if (analyzedCompilationUnit.getComponentDescriptions().isEmpty() && analyzedCompilationUnit.hasTypes()) {
       // delete any component description that eventually have been generated before for this resource
-      ComponentDescriptionWriter.deleteGeneratedFiles(resource.getProject(), resource.getFullPath());
+      ComponentDescriptionWriter.deleteGeneratedFiles(resource.getProject(), resource.getProjectRelativePath());
     }
 
+    //
+    IPath sourceFile = resource.getProjectRelativePath();
+    Set<IPath> generatedFiles = new HashSet<IPath>();
+    Set<IPath> dependencies = new HashSet<IPath>();
+
     // iterate over the component descriptions
-    for (ComponentDescription description : myAstVisitor.getComponentDescriptions()) {
+    for (ComponentDescription description : analyzedCompilationUnit.getComponentDescriptions()) {
+
+      //
+      generatedFiles.add(ComponentDescriptionWriter.getComponentDescriptionPath(description));
+      for (String dependency : description.getDependencies()) {
+        dependencies.add(new Path(dependency));
+      }
 
       if (description.hasProblems()) {
 
         try {
 
           for (DsAnnotationProblem problem : description.getProblems()) {
-            IMarker marker = resource.createMarker(Constants.DS_ANNOTATION_PROBLEM_MARKER);
-            marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
-            marker.setAttribute(IMarker.CHAR_START, problem.getCharStart());
-            marker.setAttribute(IMarker.CHAR_END, problem.getCharEnd());
-            marker.setAttribute(IMarker.MESSAGE, problem.getMessage());
+            reportProblem(resource, problem);
           }
 
         } catch (CoreException e) {
 
           // delete
-          ComponentDescriptionWriter.deleteGeneratedFiles(resource.getProject(), resource.getFullPath());
+          ComponentDescriptionWriter.deleteGeneratedFiles(resource.getProject(), resource.getProjectRelativePath());
 
           // TODO
           e.printStackTrace();
@@ -179,6 +835,155 @@ public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDelt
         ComponentDescriptionWriter.writeComponentDescription(resource.getProject(), description);
       }
     }
+
+    //
+    if (!generatedFiles.isEmpty()) {
+
+      // delete component descriptions that are not generated from this source file anymore
+      ComponentDescriptionWriter.retainGeneratedFiles(resource.getProject(), sourceFile, generatedFiles);
+
+      // record the types the component descriptions depend on
+      buildState.setDependencies(sourceFile, dependencies);
+    }
+
+    // the result is up to date as long as the content of the source file doesn't change (the source file isn't read
+    // again: the content hash is only known if it has been computed by skipUnchangedSourceFiles())
+    long modificationStamp = resource.getModificationStamp();
+    if (modificationStamp != IResource.NULL_STAMP) {
+      buildState.setContentStamp(sourceFile, new ContentStamp(modificationStamp, _contentHashes.get(resource)));
+    } else {
+      buildState.removeContentStamp(sourceFile);
+    }
+  }
+
+  /**
+   * <p>
+   * Computes the content hash of the given file.
+   * </p>
+   * 
+   * @param file
+   * @return the content hash of the given file or <code>null</code> if the file can not be read.
+   */
+  private static String getContentHash(IFile file) {
+
+    try {
+
+      //
+      MessageDigest messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+      InputStream inputStream = file.getContents(true);
+
+      try {
+
+        //
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+          messageDigest.update(buffer, 0, count);
+        }
+
+        //
+        return ComponentDescriptionSerializer.toHexString(messageDigest.digest());
+
+      } finally {
+        inputStream.close();
+      }
+
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (IOException e) {
+      return null;
+    } catch (CoreException e) {
+      return null;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns a stamp of the environment the source files are analyzed in (the resolved classpath of the project and the
+   * version of this plug-in). The content stamps are discarded if the environment changes.
+   * </p>
+   * 
+   * @return the stamp of the current environment.
+   */
+  private String getEnvironmentStamp() {
+
+    try {
+
+      //
+      MessageDigest messageDigest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+      //
+      if (Activator.getBundleContext() != null) {
+        messageDigest.update(Activator.getBundleContext().getBundle().getVersion().toString().getBytes("UTF-8"));
+      }
+
+      // switching the output mode requires to analyze all source files again (switching the output form doesn't: the
+      // compact and the formatted form of a component are considered equal)
+      messageDigest.update(Boolean.toString(DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(_project))
+          .getBytes("UTF-8"));
+
+      //
+      for (IClasspathEntry classpathEntry : JavaCore.create(_project).getResolvedClasspath(true)) {
+        messageDigest.update((classpathEntry.getEntryKind() + ":" + classpathEntry.getPath().toPortableString() + "\n")
+            .getBytes("UTF-8"));
+      }
+
+      //
+      return ComponentDescriptionSerializer.toHexString(messageDigest.digest());
+
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage(), e);
+    } catch (JavaModelException e) {
+
+      // unknown environment: the content stamps are discarded
+      return "";
+    }
+  }
+
+  /**
+   * <p>
+   * Reports the given problem by creating a problem marker on the given resource.
+   * </p>
+   * 
+   * @param resource
+   * @param problem
+   * @throws CoreException
+   */
+  protected void reportProblem(IResource resource, DsAnnotationProblem problem) throws CoreException {
+    IMarker marker = resource.createMarker(Constants.DS_ANNOTATION_PROBLEM_MARKER);
+    marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_ERROR);
+    marker.setAttribute(IMarker.CHAR_START, problem.getCharStart());
+    marker.setAttribute(IMarker.CHAR_END, problem.getCharEnd());
+    marker.setAttribute(IMarker.MESSAGE, problem.getMessage());
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param resource
+   */
+  protected void deleteMarkers(IResource resource) {
+    try {
+      resource.deleteMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, true, IResource.DEPTH_ZERO);
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * <p>
+   * Throws an {@link OperationCanceledException} if the given monitor has been canceled.
+   * </p>
+   * 
+   * @param monitor
+   */
+  private static void checkCanceled(IProgressMonitor monitor) {
+    if (monitor != null && monitor.isCanceled()) {
+      throw new OperationCanceledException();
+    }
   }
 
   /**
@@ -205,22 +1010,75 @@ public class DsAnnotationBuildVisitor implements IResourceVisitor, IResourceDelt
    * <p>
    * </p>
    * 
-   * @param icompilationUnit
+   * @param javaProject
+   * @param resolveBindings
    * @return
    */
-  private CompilationUnit createAst(ICompilationUnit icompilationUnit) {
+  private ASTParser createParser(IJavaProject javaProject, boolean resolveBindings) {
     ASTParser parser = ASTParser.newParser(AST.JLS4); // handles JDK 1.0,
     // 1.1, 1.2, 1.3,
     // 1.4, 1.5, 1.6
-    parser.setSource(icompilationUnit);
+    parser.setProject(javaProject);
 
     // In order to parse 1.5 code, some compiler options need to be set to
     // 1.5
     Map options = JavaCore.getOptions();
     JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
     parser.setCompilerOptions(options);
-    parser.setResolveBindings(true);
-    CompilationUnit result = (CompilationUnit) parser.createAST(null);
-    return result;
+    parser.setResolveBindings(resolveBindings);
+
+    // DS annotations are only located on declarations, so the detection parse skips method bodies; the resolved parse
+    // keeps them, so that compile errors in method bodies still prevent generating component descriptions (see
+    // hasErrors(CompilationUnit))
+    parser.setIgnoreMethodBodies(!resolveBindings);
+    parser.setStatementsRecovery(false);
+    return parser;
+  }
+
+  /**
+   * <p>
+   * The result of analyzing a single compilation unit.
+   * </p>
+   * 
+   * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+   */
+  private static class AnalyzedCompilationUnit {
+
+    /** the source file */
+    private IResource                        _resource;
+
+    /** the component descriptions (<code>null</code> if the compilation unit has compile errors) */
+    private Collection<ComponentDescription> _componentDescriptions;
+
+    /** indicates that the AST contains type declarations */
+    private boolean                          _hasTypes;
+
+    /**
+     * <p>
+     * Creates a new instance of type {@link AnalyzedCompilationUnit}.
+     * </p>
+     * 
+     * @param resource
+     * @param componentDescriptions
+     * @param hasTypes
+     */
+    public AnalyzedCompilationUnit(IResource resource, Collection<ComponentDescription> componentDescriptions,
+        boolean hasTypes) {
+      _resource = resource;
+      _componentDescriptions = componentDescriptions;
+      _hasTypes = hasTypes;
+    }
+
+    public IResource getResource() {
+      return _resource;
+    }
+
+    public Collection<ComponentDescription> getComponentDescriptions() {
+      return _componentDescriptions;
+    }
+
+    public boolean hasTypes() {
+      return _hasTypes;
+    }
   }
 }
@@ -11,43 +11,198 @@
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
 
 public class DsAnnotationBuilder extends IncrementalProjectBuilder {
 
   @Override
-  protected IProject[] build(int kind, Map args, IProgressMonitor monitor) throws CoreException {
+  protected IProject[] build(final int kind, Map args, IProgressMonitor monitor) throws CoreException {
 
-    if (kind == IncrementalProjectBuilder.FULL_BUILD) {
-      fullBuild(monitor);
-    } else {
+    // the component descriptions are generated by the DsAnnotationCompilationParticipant
+    if (DsAnnotationPreferences.isCompilationParticipantEnabled(getProject())) {
+
+      // the participant only sees compiled source files: the wildcard header is validated here
       IResourceDelta delta = getDelta(getProject());
-      if (delta == null) {
+      IResourceDelta folderDelta = delta != null ? delta.findMember(new Path(Constants.COMPONENT_DESCRIPTION_FOLDER))
+          : null;
+      if (folderDelta != null && DsAnnotationPreferences.isWildcardServiceComponentHeaderEnabled(getProject())) {
+        DsAnnotationBuildVisitor visitor = new DsAnnotationBuildVisitor(getProject());
+        folderDelta.accept(visitor);
+        if (visitor.isForeignComponentDescriptionsChanged()) {
+          ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(getProject(), ProjectBuildState
+              .getBuildState(getProject()).getGeneratedFiles());
+        }
+      }
+      return null;
+    }
+
+    // the delta only contains the modifications of the previous build (component descriptions, manifest and build
+    // properties): nothing to do
+    if (kind != IncrementalProjectBuilder.FULL_BUILD) {
+      IResourceDelta delta = getDelta(getProject());
+      ProjectBuildState buildState = ProjectBuildState.getBuildState(getProject());
+      if (delta != null && buildState.isDependencyGraphComplete() && buildState.isOwnModification(delta)) {
+        BuildStatistics.avoidedBuild();
+        return null;
+      }
+    }
+
+    try {
+
+      // all resource modifications of a build (component descriptions, markers, manifest and build properties) are
+      // performed in a single workspace operation, so that listeners receive one resource delta per build. The build
+      // yields to concurrent workspace modifications (e.g. user edits).
+      getProject().getWorkspace().run(new IWorkspaceRunnable() {
+        @Override
+        public void run(IProgressMonitor monitor) throws CoreException {
+          buildComponentDescriptions(kind, monitor);
+        }
+      }, getProject(), IWorkspace.AVOID_UPDATE, interruptible(monitor));
+
+    } catch (OperationCanceledException e) {
+
+      // the platform records the current tree as built unless the last built state is remembered explicitly: the
+      // complete delta of this build is delivered again with the next build, the component descriptions that have been
+      // written so far are skipped by the fingerprint check
+      rememberLastBuiltState();
+      ProjectBuildState.save(getProject());
+      throw e;
+    }
+
+    return null;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * The builder only modifies resources of its own project.
+   * </p>
+   */
+  @Override
+  public ISchedulingRule getRule(int kind, Map args) {
+    return getProject();
+  }
+
+  /**
+   * <p>
+   * </p>
+   * 
+   * @param kind
+   * @param monitor
+   * @throws CoreException
+   */
+  private void buildComponentDescriptions(int kind, IProgressMonitor monitor) throws CoreException {
+
+    // remember the generated component descriptions before building
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(getProject());
+    Set<IPath> generatedFiles = buildState.getGeneratedFilePaths();
+    boolean fullBuild = true;
+    boolean foreignComponentDescriptionsChanged = false;
+
+    // only the modifications of this build are recognized as own modifications in the next build
+    buildState.clearOwnModifications();
+
+    // the builder trusts its own writes, the component description folder only has to be refreshed if it has been
+    // modified outside of the workspace
+    ComponentDescriptionWriter.synchronizeComponentDescriptionFolder(getProject());
+
+    try {
+
+      if (kind == IncrementalProjectBuilder.FULL_BUILD) {
         fullBuild(monitor);
       } else {
-        incrementalBuild(delta, monitor);
+        IResourceDelta delta = getDelta(getProject());
+        if (delta == null || !buildState.isDependencyGraphComplete()) {
+          fullBuild(monitor);
+        } else {
+          foreignComponentDescriptionsChanged = incrementalBuild(delta, monitor);
+          fullBuild = false;
+        }
+      }
+
+    } finally {
+
+      // write the aggregated component descriptions once per build
+      ComponentDescriptionWriter.flushComponentDescriptions(getProject());
+
+      // update the manifest and the build properties once per build (and only if the component descriptions have
+      // changed - a full build always checks the manifest). The wildcard header has to be validated again if a foreign
+      // xml file in the component description folder has been modified.
+      if (fullBuild
+          || !generatedFiles.equals(buildState.getGeneratedFilePaths())
+          || (foreignComponentDescriptionsChanged && DsAnnotationPreferences
+              .isWildcardServiceComponentHeaderEnabled(getProject()))) {
+        ManifestAndBuildPropertiesUpdater
+            .updateManifestAndBuildProperties(getProject(), buildState.getGeneratedFiles());
       }
     }
-    return null;
+  }
+
+  /**
+   * <p>
+   * Returns a progress monitor that is canceled if either the given monitor has been canceled or an interrupt request
+   * has been made for this build.
+   * </p>
+   * 
+   * @param monitor
+   * @return the interruptible progress monitor
+   */
+  private IProgressMonitor interruptible(IProgressMonitor monitor) {
+    return new ProgressMonitorWrapper(monitor != null ? monitor : new NullProgressMonitor()) {
+      @Override
+      public boolean isCanceled() {
+        return super.isCanceled() || isInterrupted();
+      }
+    };
   }
 
   private void fullBuild(IProgressMonitor monitor) {
     try {
-      getProject().accept(new DsAnnotationBuildVisitor());
+      DsAnnotationBuildVisitor visitor = new DsAnnotationBuildVisitor(getProject());
+      getProject().accept(visitor);
+      visitor.buildComponentDescriptions(monitor);
+
+      // all source files have been analyzed
+      ProjectBuildState.getBuildState(getProject()).setDependencyGraphComplete();
     } catch (CoreException e) {
     }
   }
 
-  protected void incrementalBuild(IResourceDelta delta, IProgressMonitor monitor) throws CoreException {
-    delta.accept(new DsAnnotationBuildVisitor());
+  /**
+   * <p>
+   * Builds the component descriptions of the source files contained in the given delta.
+   * </p>
+   * 
+   * @param delta
+   * @param monitor
+   * @return <code>true</code> if a foreign xml file in the component description folder has been modified.
+   * @throws CoreException
+   */
+  protected boolean incrementalBuild(IResourceDelta delta, IProgressMonitor monitor) throws CoreException {
+    DsAnnotationBuildVisitor visitor = new DsAnnotationBuildVisitor(getProject());
+    delta.accept(visitor);
+    visitor.skipUnchangedSourceFiles();
+    visitor.addDependentSourceFiles();
+    visitor.buildComponentDescriptions(monitor);
+    return visitor.isForeignComponentDescriptionsChanged();
   }
 
   /**
@@ -56,11 +211,32 @@ public class DsAnnotationBuilder extends IncrementalProjectBuilder {
   @Override
   protected void clean(IProgressMonitor monitor) throws CoreException {
 
-    // delete all the markers
-    getProject().deleteMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, true, IResource.DEPTH_ZERO);
+    // the component descriptions are cleaned by the DsAnnotationCompilationParticipant
+    if (DsAnnotationPreferences.isCompilationParticipantEnabled(getProject())) {
+      super.clean(monitor);
+      return;
+    }
+
+    // all resource modifications are performed in a single workspace operation
+    getProject().getWorkspace().run(new IWorkspaceRunnable() {
+      @Override
+      public void run(IProgressMonitor monitor) throws CoreException {
 
-    //
-    ComponentDescriptionWriter.removeDanglingComponentDescriptions(getProject());
+        // delete all the markers
+        getProject().deleteMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, true, IResource.DEPTH_ZERO);
+
+        // re-synchronize the build state with the component description folder
+        ProjectBuildState.getBuildState(getProject()).rebuild();
+
+        //
+        ComponentDescriptionWriter.removeDanglingComponentDescriptions(getProject());
+        ComponentDescriptionWriter.flushComponentDescriptions(getProject());
+
+        //
+        ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(getProject(), ProjectBuildState
+            .getBuildState(getProject()).getGeneratedFiles());
+      }
+    }, getProject(), IWorkspace.AVOID_UPDATE, monitor);
 
     //
     super.clean(monitor);
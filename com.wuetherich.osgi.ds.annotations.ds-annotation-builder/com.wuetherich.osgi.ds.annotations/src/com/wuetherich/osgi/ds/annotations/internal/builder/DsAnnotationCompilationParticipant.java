@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.compiler.BuildContext;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.core.compiler.CompilationParticipant;
+import org.eclipse.jdt.core.compiler.IProblem;
+import org.eclipse.jdt.core.compiler.ReconcileContext;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.Activator;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationCategorizedProblem;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationProblem;
+
+/**
+ * <p>
+ * The {@link DsAnnotationCompilationParticipant} generates the component descriptions from within the java builder. It
+ * is only active for projects with the DS annotation nature that have enabled the preference
+ * {@link DsAnnotationPreferences#COMPILATION_PARTICIPANT}; the {@link DsAnnotationBuilder} skips these projects.
+ * </p>
+ * <p>
+ * The source files compiled by the java builder are handed over in
+ * {@link #buildStarting(BuildContext[], boolean)}, so the resource delta doesn't have to be visited a second time.
+ * Problems are reported as {@link CategorizedProblem}s and the java builder creates the markers together with its own
+ * markers. While editing, the problems are computed from the AST that JDT has already created for reconciling.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationCompilationParticipant extends CompilationParticipant {
+
+  /** the generated component descriptions before the current build (project -> generated files) */
+  private Map<IProject, Set<IPath>> _generatedFiles = new ConcurrentHashMap<IProject, Set<IPath>>();
+
+  /** the projects that are built from scratch (project -> full build) */
+  private Map<IProject, Boolean>    _fullBuilds     = new ConcurrentHashMap<IProject, Boolean>();
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean isActive(IJavaProject javaProject) {
+    try {
+      IProject project = javaProject.getProject();
+      return project.hasNature(Constants.NATURE_ID) && DsAnnotationPreferences.isCompilationParticipantEnabled(project);
+    } catch (CoreException e) {
+      return false;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int aboutToBuild(IJavaProject javaProject) {
+
+    // remember the generated component descriptions before building
+    IProject project = javaProject.getProject();
+    _generatedFiles.put(project, ProjectBuildState.getBuildState(project).getGeneratedFilePaths());
+    _fullBuilds.put(project, Boolean.FALSE);
+
+    //
+    ComponentDescriptionWriter.synchronizeComponentDescriptionFolder(project);
+
+    //
+    return READY_FOR_BUILD;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void buildStarting(BuildContext[] files, boolean isBatch) {
+
+    //
+    if (files.length == 0) {
+      return;
+    }
+
+    //
+    IProject project = files[0].getFile().getProject();
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
+    boolean fullBuild = isBatch || !buildState.isDependencyGraphComplete();
+
+    try {
+
+      //
+      ParticipantBuildVisitor visitor = new ParticipantBuildVisitor(project, files);
+
+      // the dependency graph is only complete after all source files have been analyzed
+      if (fullBuild) {
+        project.accept(visitor);
+      } else {
+        for (BuildContext buildContext : files) {
+          visitor.addSourceFile(buildContext.getFile());
+        }
+        visitor.addDependentSourceFiles();
+      }
+
+      //
+      visitor.buildComponentDescriptions(null);
+      visitor.recordProblems();
+
+      //
+      if (fullBuild) {
+        buildState.setDependencyGraphComplete();
+        _fullBuilds.put(project, Boolean.TRUE);
+      }
+
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void buildFinished(IJavaProject javaProject) {
+
+    //
+    IProject project = javaProject.getProject();
+    ProjectBuildState buildState = ProjectBuildState.getBuildState(project);
+
+    try {
+
+      // the java builder doesn't report removed source files
+      DsAnnotationBuildVisitor visitor = new DsAnnotationBuildVisitor(project);
+      visitor.addRemovedSourceFiles();
+      visitor.buildComponentDescriptions(null);
+      ComponentDescriptionWriter.flushComponentDescriptions(project);
+
+      // update the manifest and the build properties once per build
+      Set<IPath> generatedFiles = _generatedFiles.remove(project);
+      Boolean fullBuild = _fullBuilds.remove(project);
+      if (generatedFiles == null || Boolean.TRUE.equals(fullBuild)
+          || !generatedFiles.equals(buildState.getGeneratedFilePaths())) {
+        ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(project, buildState.getGeneratedFiles());
+      }
+
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void cleanStarting(IJavaProject javaProject) {
+
+    //
+    IProject project = javaProject.getProject();
+
+    // the java builder deletes the (managed) problem markers
+    ProjectBuildState.getBuildState(project).rebuild();
+    ComponentDescriptionWriter.removeDanglingComponentDescriptions(project);
+
+    try {
+
+      //
+      ComponentDescriptionWriter.flushComponentDescriptions(project);
+      ManifestAndBuildPropertiesUpdater.updateManifestAndBuildProperties(project, ProjectBuildState
+          .getBuildState(project).getGeneratedFiles());
+
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Reports the DS annotation problems of the reconciled working copy. No component descriptions are written while
+   * reconciling.
+   * </p>
+   */
+  @Override
+  public void reconcile(ReconcileContext context) {
+
+    try {
+
+      // the working copy can not contain any DS annotations
+      String source = context.getWorkingCopy().getSource();
+      if (source == null || !source.contains(Constants.DS_ANNOTATION_PACKAGE)) {
+        return;
+      }
+
+      // re-use the AST of the reconciler
+      CompilationUnit compilationUnit = context.getAST8();
+      if (compilationUnit == null || hasErrors(compilationUnit)) {
+        return;
+      }
+
+      //
+      DsAnnotationAstVisitor visitor = new DsAnnotationAstVisitor();
+      compilationUnit.accept(visitor);
+
+      //
+      char[] fileName = context.getWorkingCopy().getPath().toString().toCharArray();
+      List<CategorizedProblem> problems = new ArrayList<CategorizedProblem>();
+      for (ComponentDescription description : visitor.getComponentDescriptions()) {
+        for (DsAnnotationProblem problem : description.getProblems()) {
+          problems.add(new DsAnnotationCategorizedProblem(fileName, problem, compilationUnit.getLineNumber(problem
+              .getCharStart())));
+        }
+      }
+
+      //
+      context.putProblems(Constants.DS_ANNOTATION_PROBLEM_MARKER,
+          problems.isEmpty() ? null : problems.toArray(new CategorizedProblem[problems.size()]));
+
+    } catch (JavaModelException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given compilation unit has compile errors.
+   * </p>
+   * 
+   * @param compilationUnit
+   * @return <code>true</code> if the given compilation unit has compile errors.
+   */
+  private static boolean hasErrors(CompilationUnit compilationUnit) {
+
+    //
+    for (IProblem problem : compilationUnit.getProblems()) {
+      if (problem.isError()) {
+        return true;
+      }
+    }
+
+    //
+    return false;
+  }
+
+  /**
+   * <p>
+   * A {@link DsAnnotationBuildVisitor} that reports the problems of the source files compiled by the java builder to
+   * the corresponding {@link BuildContext}. Problems of all other source files (e.g. dependent source files) are
+   * reported as markers.
+   * </p>
+   * 
+   * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+   */
+  private static class ParticipantBuildVisitor extends DsAnnotationBuildVisitor {
+
+    /** the build contexts (file -> build context) */
+    private Map<IFile, BuildContext>                    _buildContexts;
+
+    /** the reported problems (build context -> problems) */
+    private Map<BuildContext, List<CategorizedProblem>> _problems;
+
+    /**
+     * <p>
+     * Creates a new instance of type {@link ParticipantBuildVisitor}.
+     * </p>
+     * 
+     * @param project
+     * @param buildContexts
+     */
+    public ParticipantBuildVisitor(IProject project, BuildContext[] buildContexts) {
+      super(project);
+
+      //
+      _buildContexts = new HashMap<IFile, BuildContext>();
+      _problems = new HashMap<BuildContext, List<CategorizedProblem>>();
+
+      //
+      for (BuildContext buildContext : buildContexts) {
+        _buildContexts.put(buildContext.getFile(), buildContext);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void reportProblem(IResource resource, DsAnnotationProblem problem) throws CoreException {
+
+      //
+      BuildContext buildContext = _buildContexts.get(resource);
+      if (buildContext == null) {
+        super.reportProblem(resource, problem);
+        return;
+      }
+
+      //
+      List<CategorizedProblem> problems = _problems.get(buildContext);
+      if (problems == null) {
+        problems = new ArrayList<CategorizedProblem>();
+        _problems.put(buildContext, problems);
+      }
+      problems.add(new DsAnnotationCategorizedProblem(resource.getFullPath().toString().toCharArray(), problem,
+          getLineNumber(buildContext.getContents(), problem.getCharStart())));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void deleteMarkers(IResource resource) {
+
+      // the java builder has already removed the (managed) markers of the compiled source files
+      if (!_buildContexts.containsKey(resource)) {
+        super.deleteMarkers(resource);
+      }
+    }
+
+    /**
+     * <p>
+     * Records the collected problems in the corresponding build contexts.
+     * </p>
+     */
+    public void recordProblems() {
+      for (Map.Entry<BuildContext, List<CategorizedProblem>> entry : _problems.entrySet()) {
+        entry.getKey().recordNewProblems(entry.getValue().toArray(new CategorizedProblem[entry.getValue().size()]));
+      }
+    }
+
+    /**
+     * <p>
+     * Returns the (1-based) line number of the given offset.
+     * </p>
+     * 
+     * @param contents
+     * @param offset
+     * @return the line number of the given offset.
+     */
+    private static int getLineNumber(char[] contents, int offset) {
+
+      //
+      int result = 1;
+      for (int i = 0; i < offset && i < contents.length; i++) {
+        if (contents[i] == '\n') {
+          result++;
+        }
+      }
+
+      //
+      return result;
+    }
+  }
+}
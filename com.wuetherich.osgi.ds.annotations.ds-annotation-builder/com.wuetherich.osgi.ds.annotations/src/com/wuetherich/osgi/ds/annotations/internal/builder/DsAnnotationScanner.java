@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * Fast lexical pre-filter for java source files. A source file can only contain DS annotations if the name of the DS
+ * annotation package appears somewhere in the file - either in a single type import, in an on-demand import or in a
+ * fully qualified annotation name. The {@link DsAnnotationScanner} searches the raw bytes of the file for this name
+ * without creating an AST. Small files are read into a heap buffer, large files are memory mapped.
+ * </p>
+ * <p>
+ * The scanner is conservative: if a file can not be read or uses an encoding that is not ASCII compatible,
+ * {@link #mayContainDsAnnotations(IFile)} returns <code>true</code>.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class DsAnnotationScanner {
+
+  /** the bytes to search for */
+  private static final byte[] PATTERN           = Constants.DS_ANNOTATION_PACKAGE.getBytes(Charset.forName("US-ASCII"));
+
+  /** files with at least this size are memory mapped */
+  private static final long   MAPPING_THRESHOLD = 64 * 1024;
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given java source file may contain DS annotations.
+   * </p>
+   * 
+   * @param file
+   *          the java source file
+   * @return <code>false</code> if the file can not contain any DS annotations.
+   */
+  public static boolean mayContainDsAnnotations(IFile file) {
+
+    //
+    IPath location = file.getLocation();
+    if (location == null || !isAsciiCompatible(file)) {
+      return true;
+    }
+
+    try {
+
+      //
+      FileInputStream inputStream = new FileInputStream(location.toFile());
+
+      try {
+
+        //
+        FileChannel channel = inputStream.getChannel();
+        long size = channel.size();
+
+        //
+        ByteBuffer buffer;
+        if (size >= MAPPING_THRESHOLD) {
+          buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } else {
+          buffer = ByteBuffer.allocate((int) size);
+          while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            // read the complete file
+          }
+          buffer.flip();
+        }
+
+        //
+        return mayContainDsAnnotations(buffer);
+
+      } finally {
+        inputStream.close();
+      }
+
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the remaining bytes of the given buffer contain the name of the DS annotation package.
+   * </p>
+   * 
+   * @param buffer
+   *          the buffer
+   * @return <code>true</code> if the buffer contains the name of the DS annotation package.
+   */
+  public static boolean mayContainDsAnnotations(ByteBuffer buffer) {
+
+    //
+    int last = buffer.limit() - PATTERN.length;
+    byte first = PATTERN[0];
+
+    //
+    outer: for (int i = buffer.position(); i <= last; i++) {
+      if (buffer.get(i) == first) {
+        for (int j = 1; j < PATTERN.length; j++) {
+          if (buffer.get(i + j) != PATTERN[j]) {
+            continue outer;
+          }
+        }
+        return true;
+      }
+    }
+
+    //
+    return false;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the charset of the given file encodes ASCII characters as single bytes.
+   * </p>
+   * 
+   * @param file
+   * @return <code>true</code> if the charset of the given file is ASCII compatible.
+   */
+  private static boolean isAsciiCompatible(IFile file) {
+    try {
+      String charset = file.getCharset().toUpperCase();
+      return !(charset.startsWith("UTF-16") || charset.startsWith("UTF-32") || charset.startsWith("UTF16") || charset
+          .startsWith("UTF32"));
+    } catch (CoreException e) {
+      return false;
+    }
+  }
+}
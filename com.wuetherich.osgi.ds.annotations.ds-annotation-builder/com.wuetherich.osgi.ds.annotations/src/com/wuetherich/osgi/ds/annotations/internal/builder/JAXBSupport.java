@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.PropertyException;
+import javax.xml.bind.Unmarshaller;
+
+import com.wuetherich.osgi.ds.annotations.xml.Tcomponent;
+import com.wuetherich.osgi.ds.annotations.xml.TconfigurationPolicy;
+import com.wuetherich.osgi.ds.annotations.xml.Timplementation;
+import com.wuetherich.osgi.ds.annotations.xml.TjavaTypes;
+import com.wuetherich.osgi.ds.annotations.xml.Tpolicy;
+import com.wuetherich.osgi.ds.annotations.xml.Tproperties;
+import com.wuetherich.osgi.ds.annotations.xml.Tproperty;
+import com.wuetherich.osgi.ds.annotations.xml.Treference;
+import com.wuetherich.osgi.ds.annotations.xml.Tservice;
+
+/**
+ * <p>
+ * Holds the process-wide {@link JAXBContext} for component descriptions. The context is created lazily on first use
+ * and shared by all threads. Since {@link Marshaller} and {@link Unmarshaller} instances are not thread-safe, each
+ * thread gets its own instances that are reused for all subsequent (un)marshalling operations.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class JAXBSupport {
+
+  /** the JAXB RI property used to write the xml header (JDK internal variant) */
+  private static final String                    XML_HEADERS_INTERNAL = "com.sun.xml.internal.bind.xmlHeaders";
+
+  /** the JAXB RI property used to write the xml header */
+  private static final String                    XML_HEADERS          = "com.sun.xml.bind.xmlHeaders";
+
+  /** the number of created contexts */
+  private static final AtomicInteger             CONTEXT_COUNT        = new AtomicInteger();
+
+  /** the number of created marshallers */
+  private static final AtomicInteger             MARSHALLER_COUNT     = new AtomicInteger();
+
+  /** the number of created unmarshallers */
+  private static final AtomicInteger             UNMARSHALLER_COUNT   = new AtomicInteger();
+
+  /** the per-thread marshaller */
+  private static final ThreadLocal<Marshaller>   MARSHALLER           = new ThreadLocal<Marshaller>();
+
+  /** the per-thread unmarshaller */
+  private static final ThreadLocal<Unmarshaller> UNMARSHALLER         = new ThreadLocal<Unmarshaller>();
+
+  /** the shared context */
+  private static volatile JAXBContext            _jaxbContext;
+
+  /** the name of the xml header property supported by the JAXB implementation */
+  private static volatile String                 _xmlHeadersProperty;
+
+  /**
+   * <p>
+   * Returns the shared {@link JAXBContext}. The context is created on first access.
+   * </p>
+   * 
+   * @return the shared {@link JAXBContext}.
+   * @throws JAXBException
+   */
+  public static JAXBContext getJAXBContext() throws JAXBException {
+
+    //
+    JAXBContext result = _jaxbContext;
+
+    //
+    if (result == null) {
+      synchronized (JAXBSupport.class) {
+        result = _jaxbContext;
+        if (result == null) {
+          result = JAXBContext.newInstance(Tcomponent.class, TconfigurationPolicy.class, Timplementation.class,
+              TjavaTypes.class, Tpolicy.class, Tproperties.class, Tproperty.class, Treference.class, Tservice.class);
+          CONTEXT_COUNT.incrementAndGet();
+          _jaxbContext = result;
+        }
+      }
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns the {@link Marshaller} of the current thread. The marshaller is configured for formatted output and writes
+   * the specified header (if any) after the xml declaration.
+   * </p>
+   * 
+   * @param header
+   *          the header to write, may be <code>null</code>
+   * @return the {@link Marshaller} of the current thread.
+   * @throws JAXBException
+   */
+  public static Marshaller getMarshaller(String header) throws JAXBException {
+    return getMarshaller(header, true);
+  }
+
+  /**
+   * <p>
+   * Returns the {@link Marshaller} of the current thread. The marshaller writes the specified header (if any) after the
+   * xml declaration.
+   * </p>
+   * 
+   * @param header
+   *          the header to write, may be <code>null</code>
+   * @param formatted
+   *          <code>true</code> for formatted (indented) output
+   * @return the {@link Marshaller} of the current thread.
+   * @throws JAXBException
+   */
+  public static Marshaller getMarshaller(String header, boolean formatted) throws JAXBException {
+
+    //
+    Marshaller marshaller = MARSHALLER.get();
+
+    //
+    if (marshaller == null) {
+
+      marshaller = getJAXBContext().createMarshaller();
+      MARSHALLER_COUNT.incrementAndGet();
+
+      // the JAXB RI rejects null values, so the supported property is probed with an empty header
+      if (_xmlHeadersProperty == null) {
+        try {
+          marshaller.setProperty(XML_HEADERS_INTERNAL, "");
+          _xmlHeadersProperty = XML_HEADERS_INTERNAL;
+        } catch (PropertyException ex) {
+          _xmlHeadersProperty = XML_HEADERS;
+        }
+      }
+
+      //
+      MARSHALLER.set(marshaller);
+    }
+
+    // the header and the output format have to be (re)set for every use
+    marshaller.setProperty(_xmlHeadersProperty, header != null ? header : "");
+    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+
+    //
+    return marshaller;
+  }
+
+  /**
+   * <p>
+   * Returns the {@link Unmarshaller} of the current thread.
+   * </p>
+   * 
+   * @return the {@link Unmarshaller} of the current thread.
+   * @throws JAXBException
+   */
+  public static Unmarshaller getUnmarshaller() throws JAXBException {
+
+    //
+    Unmarshaller unmarshaller = UNMARSHALLER.get();
+
+    //
+    if (unmarshaller == null) {
+      unmarshaller = getJAXBContext().createUnmarshaller();
+      UNMARSHALLER_COUNT.incrementAndGet();
+      UNMARSHALLER.set(unmarshaller);
+    }
+
+    //
+    return unmarshaller;
+  }
+
+  /**
+   * <p>
+   * Returns the number of {@link JAXBContext JAXBContexts} that have been created so far.
+   * </p>
+   * 
+   * @return the number of {@link JAXBContext JAXBContexts} that have been created so far.
+   */
+  public static int getCreatedContextCount() {
+    return CONTEXT_COUNT.get();
+  }
+
+  /**
+   * <p>
+   * Returns the number of {@link Marshaller Marshallers} that have been created so far.
+   * </p>
+   * 
+   * @return the number of {@link Marshaller Marshallers} that have been created so far.
+   */
+  public static int getCreatedMarshallerCount() {
+    return MARSHALLER_COUNT.get();
+  }
+
+  /**
+   * <p>
+   * Returns the number of {@link Unmarshaller Unmarshallers} that have been created so far.
+   * </p>
+   * 
+   * @return the number of {@link Unmarshaller Unmarshallers} that have been created so far.
+   */
+  public static int getCreatedUnmarshallerCount() {
+    return UNMARSHALLER_COUNT.get();
+  }
+}
@@ -10,34 +10,49 @@
  ******************************************************************************/
 package com.wuetherich.osgi.ds.annotations.internal.builder;
 
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.Manifest;
+import java.util.Set;
 
-import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.pde.core.project.IBundleProjectDescription;
 
 import com.wuetherich.osgi.ds.annotations.Constants;
-import com.wuetherich.osgi.ds.annotations.internal.Activator;
-import com.wuetherich.osgi.ds.annotations.internal.util.PathUtils;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.util.BundleFiles;
 
 /**
  * <p>
  * The {@link ManifestAndBuildPropertiesUpdater} is responsible for updating the projects manifest and build properties.
+ * The manifest and the build properties are taken from the (cached) {@link ManifestModel} of the project. Only the
+ * <code>Service-Component</code> header and the <code>bin.includes</code> property are edited in place, all other
+ * bytes of the files are preserved. Files whose computed content matches the current content are not written.
+ * </p>
+ * <p>
+ * If the wildcard header is enabled for a project (see
+ * {@link DsAnnotationPreferences#isWildcardServiceComponentHeaderEnabled(IProject)}), the header
+ * <code>Service-Component: OSGI-INF/*.xml</code> is written once and the manifest is not modified anymore when
+ * components are added, removed or renamed.
  * </p>
  * 
  * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
  */
 public class ManifestAndBuildPropertiesUpdater {
 
+  /** the bin.includes key */
+  private static final String BIN_INCLUDES = "bin.includes";
+
+  /** the wildcard Service-Component header */
+  private static final String WILDCARD     = Constants.COMPONENT_DESCRIPTION_FOLDER + "/*.xml";
+
   /**
    * <p>
    * </p>
@@ -50,153 +65,155 @@ public class ManifestAndBuildPropertiesUpdater {
       throws CoreException {
 
     //
-    boolean projectDescriptionChanged = false;
-
-    //
-    IBundleProjectDescription bundleProjectDescription = Activator.getBundleProjectDescription(project);
+    ManifestModel manifestModel = ManifestModel.getManifestModel(project);
 
     //
-    if (bundleProjectDescription != null) {
+    if (manifestModel != null) {
 
       //
-      if (map.size() > 0) {
-
-        //
-        List<String> descriptions = new LinkedList<String>();
-        for (List<IPath> pathes : map.values()) {
-          for (IPath iPath : pathes) {
-            descriptions.add(iPath.toPortableString());
-          }
+      List<String> descriptions = new LinkedList<String>();
+      for (List<IPath> pathes : map.values()) {
+        for (IPath iPath : pathes) {
+          descriptions.add(iPath.toPortableString());
         }
-        
-        // Bug-Fix: https://github.com/wuetherich/ds-annotation-builder/issues/38
-        Collections.sort(descriptions);
-
-        //
-        StringBuilder stringBuilder = new StringBuilder();
-        for (Iterator<String> iterator = descriptions.iterator(); iterator.hasNext();) {
-          stringBuilder.append(iterator.next());
-          if (iterator.hasNext()) {
-            stringBuilder.append(",\n ");
-          }
-        }
-
-        //
-        String newHeader = stringBuilder.toString();
-        newHeader = newHeader.replace(",\n ", ",");
-        projectDescriptionChanged = !newHeader.equals(bundleProjectDescription
-            .getHeader(Constants.BUNDLE_HEADER_SERVICE_COMPONENT));
-
-        //
-        bundleProjectDescription.setHeader(Constants.BUNDLE_HEADER_SERVICE_COMPONENT, stringBuilder.toString());
+      }
 
-      } else {
+      // Bug-Fix: https://github.com/wuetherich/ds-annotation-builder/issues/38
+      Collections.sort(descriptions);
 
-        //
-        projectDescriptionChanged = bundleProjectDescription.getHeader(Constants.BUNDLE_HEADER_SERVICE_COMPONENT) == null;
-        bundleProjectDescription.setHeader(Constants.BUNDLE_HEADER_SERVICE_COMPONENT, null);
+      // aggregated mode: all component descriptions are contained in a single file
+      if (!descriptions.isEmpty() && DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(project)) {
+        descriptions = Collections.singletonList(ComponentDescriptionAggregate.AGGREGATE_PATH.toPortableString());
       }
 
-      // Bug-Fix: https://github.com/wuetherich/ds-annotation-builder/issues/12
-      boolean changedBuildProperties = addComponentDescriptionFolderToBinIncludes(map, bundleProjectDescription);
-      projectDescriptionChanged = projectDescriptionChanged || changedBuildProperties;
+      //
+      List<String> header = descriptions;
+      if (DsAnnotationPreferences.isWildcardServiceComponentHeaderEnabled(project)) {
+        header = getWildcardHeader(project, manifestModel, descriptions);
+      }
 
-      if (projectDescriptionChanged) {
+      //
+      manifestModel.setManifest(BundleFiles.setManifestHeader(manifestModel.getManifest(),
+          Constants.BUNDLE_HEADER_SERVICE_COMPONENT, header));
 
-        // Bug-Fix: https://github.com/wuetherich/ds-annotation-builder/issues/6
-        // 'Empty Manifest entries got removed'
-        for (String emtptyHeader : getManifestEmptyHeader(project)) {
-          bundleProjectDescription.setHeader(emtptyHeader, "");
-        }
+      // Bug-Fix: https://github.com/wuetherich/ds-annotation-builder/issues/12
+      addComponentDescriptionFolderToBinIncludes(!header.isEmpty(), manifestModel);
 
-        // store description
-        bundleProjectDescription.apply(null);
-      }
+      // store the changed files
+      manifestModel.apply();
     }
   }
 
   /**
    * <p>
+   * Returns the wildcard header if the component description folder doesn't contain any XML files except the given
+   * component descriptions. Otherwise the wildcard would declare these files as components as well: they are marked
+   * with a warning and the given component descriptions are returned instead. Once written, the wildcard header is kept
+   * even if the project doesn't contain any components anymore.
    * </p>
    * 
-   * @param generatedComponentDescriptions
-   * @param shouldApply
-   * @param bundleProjectDescription
-   * @return
+   * @param project
+   * @param manifestModel
+   * @param descriptions
+   *          the (sorted) project relative paths of the component descriptions
+   * @return the values of the Service-Component header.
+   * @throws CoreException
    */
-  private static boolean addComponentDescriptionFolderToBinIncludes(Map<IPath, List<IPath>> map,
-      IBundleProjectDescription bundleProjectDescription) {
+  private static List<String> getWildcardHeader(IProject project, ManifestModel manifestModel,
+      List<String> descriptions) throws CoreException {
 
     //
-    IPath componentDescriptionFolder = new Path(Constants.COMPONENT_DESCRIPTION_FOLDER + "/");
+    boolean valid = true;
 
-    //
-    IPath[] binIncludePaths = bundleProjectDescription.getBinIncludes();
-    if (!PathUtils.contains(binIncludePaths, componentDescriptionFolder) && map.size() > 0) {
-      if (binIncludePaths != null) {
-        IPath[] newPaths = new IPath[binIncludePaths.length + 1];
-        System.arraycopy(binIncludePaths, 0, newPaths, 0, binIncludePaths.length);
-        newPaths[binIncludePaths.length] = componentDescriptionFolder;
-        binIncludePaths = newPaths;
-      } else {
-        binIncludePaths = new IPath[] { componentDescriptionFolder };
-      }
-    }
+    // validate the component description folder
+    IFolder folder = project.getFolder(Constants.COMPONENT_DESCRIPTION_FOLDER);
+    if (folder.exists()) {
 
-    //
-    else if (PathUtils.contains(binIncludePaths, componentDescriptionFolder) && map.size() == 0) {
-      List<IPath> newPathList = new LinkedList<IPath>();
-      for (IPath binIncludePath : binIncludePaths) {
-        if (!binIncludePath.equals(componentDescriptionFolder)) {
-          newPathList.add(binIncludePath);
+      //
+      folder.deleteMarkers(Constants.DS_ANNOTATION_PROBLEM_MARKER, false, IResource.DEPTH_ONE);
+
+      //
+      Set<String> generatedFiles = new HashSet<String>(descriptions);
+      for (IResource member : folder.members()) {
+        if (member.getType() == IResource.FILE && "xml".equals(member.getFileExtension())
+            && !generatedFiles.contains(member.getProjectRelativePath().toPortableString())) {
+          IMarker marker = member.createMarker(Constants.DS_ANNOTATION_PROBLEM_MARKER);
+          marker.setAttribute(IMarker.SEVERITY, IMarker.SEVERITY_WARNING);
+          marker.setAttribute(IMarker.MESSAGE, String.format("The file '%s' is not a generated component description "
+              + "and would be matched by the wildcard header '%s'.", member.getName(), WILDCARD));
+          valid = false;
         }
       }
-      binIncludePaths = newPathList.toArray(new IPath[0]);
     }
 
     //
-    boolean result = !Arrays.deepEquals(bundleProjectDescription.getBinIncludes(), binIncludePaths);
+    if (!valid) {
+      return descriptions;
+    }
 
-    bundleProjectDescription.setBinIncludes(binIncludePaths);
+    //
+    List<String> result = Collections.singletonList(WILDCARD);
+    if (descriptions.isEmpty()
+        && !result.equals(BundleFiles.getManifestHeader(manifestModel.getManifest(),
+            Constants.BUNDLE_HEADER_SERVICE_COMPONENT))) {
+      return descriptions;
+    }
 
+    //
     return result;
   }
 
   /**
    * <p>
-   * This method is necessary to fix bug [https://github.com/wuetherich/ds-annotation-builder/issues/6]. It resource an
-   * arrays of all empty manifest entries contained in the manifest of the given project. If the project does not
-   * contain a manifest file (or the manifest could not be read), an empty array will be returned instead.
+   * Adds the component description folder to the bin.includes property if the Service-Component header isn't empty and
+   * removes it if it is.
    * </p>
    * 
-   * @param project
-   *          the project
-   * @return the array of empty manifest header (or null)
+   * @param hasComponentDescriptions
+   * @param manifestModel
    */
-  private static String[] getManifestEmptyHeader(IProject project) {
+  private static void addComponentDescriptionFolderToBinIncludes(boolean hasComponentDescriptions,
+      ManifestModel manifestModel) {
 
     //
-    try {
+    IPath componentDescriptionFolder = new Path(Constants.COMPONENT_DESCRIPTION_FOLDER + "/");
 
-      //
-      IFile file = project.getFile("META-INF/MANIFEST.MF");
-      Manifest manifest = new Manifest(file.getContents());
+    //
+    String buildProperties = manifestModel.getBuildProperties();
+    if (buildProperties == null) {
+      if (!hasComponentDescriptions) {
+        return;
+      }
+      buildProperties = "";
+    }
 
-      //
-      List<String> result = new LinkedList<String>();
-      for (Map.Entry<Object, Object> entries : manifest.getMainAttributes().entrySet()) {
-        if (entries.getValue() == null || entries.getValue().toString().isEmpty()) {
-          result.add(entries.getKey().toString());
+    //
+    List<String> binIncludes = BundleFiles.getBuildProperty(buildProperties, BIN_INCLUDES);
+    if (binIncludes == null) {
+      binIncludes = new LinkedList<String>();
+    }
+
+    //
+    List<String> newBinIncludes = new LinkedList<String>();
+    boolean contained = false;
+    for (String binInclude : binIncludes) {
+      if (new Path(binInclude).equals(componentDescriptionFolder)) {
+        contained = true;
+        if (!hasComponentDescriptions) {
+          continue;
         }
       }
+      newBinIncludes.add(binInclude);
+    }
 
-      //
-      return result.toArray(new String[] {});
+    //
+    if (!contained && hasComponentDescriptions) {
+      newBinIncludes.add(componentDescriptionFolder.toPortableString());
     }
 
     //
-    catch (Throwable throwable) {
-      return new String[] {};
+    if (!newBinIncludes.equals(binIncludes)) {
+      manifestModel.setBuildProperties(BundleFiles.setBuildProperty(buildProperties, BIN_INCLUDES, newBinIncludes));
     }
   }
 }
@@ -0,0 +1,319 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+
+/**
+ * <p>
+ * The {@link ManifestModel} caches the text of the manifest and the build properties of a project, so that they are
+ * not read again for every update of the manifest. The text is edited in place (see
+ * {@link com.wuetherich.osgi.ds.annotations.internal.util.BundleFiles}) and only the files that have actually been
+ * changed are written in {@link #apply()}. The model is discarded if one of the files it has been created from is
+ * modified by someone else (see {@link #resourceChanged(IProject, IFile)}); the modifications applied by the model
+ * itself don't invalidate it.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class ManifestModel {
+
+  /** the project relative path of the manifest */
+  public static final IPath                         MANIFEST         = new Path("META-INF/MANIFEST.MF");
+
+  /** the project relative path of the build properties */
+  public static final IPath                         BUILD_PROPERTIES = new Path("build.properties");
+
+  /** the project relative paths of the files the model depends on */
+  public static final IPath[]                       WATCHED_FILES    = { MANIFEST, BUILD_PROPERTIES };
+
+  /** the charset of the manifest */
+  private static final Charset                      UTF_8            = Charset.forName("UTF-8");
+
+  /** the charset of the build properties */
+  private static final Charset                      ISO_8859_1       = Charset.forName("ISO-8859-1");
+
+  /** all cached models (project -> model) */
+  private static final Map<IProject, ManifestModel> MODELS           = new HashMap<IProject, ManifestModel>();
+
+  /** the project */
+  private IProject                                  _project;
+
+  /** the text of the manifest */
+  private String                                    _manifest;
+
+  /** the text of the build properties (<code>null</code> if the project doesn't contain build properties) */
+  private String                                    _buildProperties;
+
+  /** the text of the manifest as it has been read or written */
+  private String                                    _savedManifest;
+
+  /** the text of the build properties as it has been read or written */
+  private String                                    _savedBuildProperties;
+
+  /** the modification stamps of the watched files */
+  private long[]                                    _modificationStamps;
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link ManifestModel}.
+   * </p>
+   * 
+   * @param project
+   * @throws CoreException
+   */
+  private ManifestModel(IProject project) throws CoreException {
+    _project = project;
+    _modificationStamps = getModificationStamps(project);
+    _manifest = _savedManifest = read(project.getFile(MANIFEST), UTF_8);
+    _buildProperties = _savedBuildProperties = read(project.getFile(BUILD_PROPERTIES), ISO_8859_1);
+  }
+
+  /**
+   * <p>
+   * Returns the (cached) manifest model of the given project.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return the manifest model of the given project or <code>null</code> if the project doesn't contain a manifest.
+   * @throws CoreException
+   */
+  public static synchronized ManifestModel getManifestModel(IProject project) throws CoreException {
+
+    //
+    ManifestModel result = MODELS.get(project);
+
+    //
+    if (result == null) {
+
+      //
+      if (!project.getFile(MANIFEST).exists()) {
+        return null;
+      }
+
+      //
+      result = new ManifestModel(project);
+      MODELS.put(project, result);
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Discards the model of the given project if the given (watched) file has been modified since the model has been
+   * created or applied.
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @param file
+   *          the modified file
+   */
+  public static synchronized void resourceChanged(IProject project, IFile file) {
+
+    //
+    ManifestModel model = MODELS.get(project);
+    if (model == null) {
+      return;
+    }
+
+    //
+    for (int i = 0; i < WATCHED_FILES.length; i++) {
+      if (WATCHED_FILES[i].equals(file.getProjectRelativePath())
+          && model._modificationStamps[i] != file.getModificationStamp()) {
+        MODELS.remove(project);
+        return;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Discards the model of the given project.
+   * </p>
+   * 
+   * @param project
+   */
+  public static synchronized void discard(IProject project) {
+    MODELS.remove(project);
+  }
+
+  public synchronized String getManifest() {
+    return _manifest;
+  }
+
+  public synchronized void setManifest(String manifest) {
+    _manifest = manifest;
+  }
+
+  public synchronized String getBuildProperties() {
+    return _buildProperties;
+  }
+
+  public synchronized void setBuildProperties(String buildProperties) {
+    _buildProperties = buildProperties;
+  }
+
+  /**
+   * <p>
+   * Writes the manifest and the build properties if they have been changed and records the new state of the watched
+   * files. Nothing is written if the text of a file has not been changed.
+   * </p>
+   * 
+   * @throws CoreException
+   */
+  public synchronized void apply() throws CoreException {
+
+    try {
+
+      //
+      if (!_manifest.equals(_savedManifest)) {
+        write(_project.getFile(MANIFEST), _manifest, UTF_8);
+        _savedManifest = _manifest;
+      }
+
+      //
+      if (_buildProperties != null && !_buildProperties.equals(_savedBuildProperties)) {
+        write(_project.getFile(BUILD_PROPERTIES), _buildProperties, ISO_8859_1);
+        _savedBuildProperties = _buildProperties;
+      }
+
+      //
+      _modificationStamps = getModificationStamps(_project);
+
+    } catch (CoreException e) {
+      discard(_project);
+      throw e;
+    } catch (RuntimeException e) {
+      discard(_project);
+      throw e;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the modification stamps of the watched files.
+   * </p>
+   * 
+   * @param project
+   * @return the modification stamps of the watched files.
+   */
+  private static long[] getModificationStamps(IProject project) {
+
+    //
+    long[] result = new long[WATCHED_FILES.length];
+    for (int i = 0; i < WATCHED_FILES.length; i++) {
+      result[i] = project.getFile(WATCHED_FILES[i]).getModificationStamp();
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Reads the text of the given file.
+   * </p>
+   * 
+   * @param file
+   * @param charset
+   * @return the text of the given file or <code>null</code> if the file doesn't exist.
+   * @throws CoreException
+   */
+  static String read(IFile file, Charset charset) throws CoreException {
+
+    //
+    if (!file.exists()) {
+      return null;
+    }
+
+    try {
+
+      //
+      InputStream inputStream = file.getContents(true);
+
+      try {
+
+        //
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+          outputStream.write(buffer, 0, count);
+        }
+
+        //
+        return new String(outputStream.toByteArray(), charset);
+
+      } finally {
+        inputStream.close();
+      }
+
+    } catch (IOException e) {
+      throw new CoreException(new Status(IStatus.ERROR, Constants.BUNDLE_ID, e.getMessage(), e));
+    }
+  }
+
+  /**
+   * <p>
+   * Writes the given text to the given file (the file is created if necessary).
+   * </p>
+   * 
+   * @param file
+   * @param text
+   * @param charset
+   * @throws CoreException
+   */
+  static void write(IFile file, String text, Charset charset) throws CoreException {
+    write(file, new ByteArrayInputStream(text.getBytes(charset)));
+  }
+
+  /**
+   * <p>
+   * Writes the content of the given input stream to the given file (the file is created if necessary).
+   * </p>
+   * 
+   * @param file
+   * @param inputStream
+   * @throws CoreException
+   */
+  static void write(IFile file, InputStream inputStream) throws CoreException {
+
+    //
+    if (file.exists()) {
+      file.setContents(inputStream, true, true, null);
+    } else {
+      file.create(inputStream, true, null);
+    }
+
+    // the builder doesn't have to react to its own modifications
+    ProjectBuildState.getBuildState(file.getProject()).recordOwnModification(file);
+  }
+}
@@ -0,0 +1,1039 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IFolder;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Platform;
+
+import com.wuetherich.osgi.ds.annotations.Constants;
+import com.wuetherich.osgi.ds.annotations.internal.Activator;
+import com.wuetherich.osgi.ds.annotations.internal.DsAnnotationPreferences;
+import com.wuetherich.osgi.ds.annotations.internal.util.GenericCache;
+
+/**
+ * <p>
+ * The {@link ProjectBuildState} holds the state of the DS annotation builder for a single project: the index that maps
+ * each source file to the component descriptions that have been generated from it. The index is maintained
+ * incrementally by the builder and is saved to the plug-in state location in a compact binary format. It is only
+ * rebuilt from the component description folder if the saved state is missing or corrupt.
+ * </p>
+ * <p>
+ * The build state also holds the dependency graph of the project: for each source file that contains components, the
+ * source files of the types the generated component descriptions depend on (super types, service types, reference
+ * interfaces). If one of these files changes, the dependent source files are rebuilt as well. The dependency graph can
+ * not be restored from the component description folder, so after a rebuild of the index it is incomplete until the
+ * next full build.
+ * </p>
+ * <p>
+ * Finally, the build state holds a content stamp (modification stamp and content hash) for each source file that has
+ * been analyzed successfully. Incremental builds skip source files whose content has not changed since (e.g. files that
+ * have been touched or restored by a version control system). The content stamps are only valid for a specific
+ * environment (classpath and plug-in version, see {@link #validateContentStamps(String)}).
+ * </p>
+ * <p>
+ * In addition, the build state remembers the files the builder itself has written or deleted (component descriptions,
+ * manifest and build properties) together with their modification stamps. These records are not saved. They allow to
+ * recognize resource deltas that only consist of the builder's own modifications (see
+ * {@link #isOwnModification(IResourceDelta)}).
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class ProjectBuildState {
+
+  /** the magic number of state files ('DSAB') */
+  private static final int                            MAGIC                = 0x44534142;
+
+  /** the version of the state file format */
+  private static final int                            FORMAT_VERSION       = 3;
+
+  /** the extension of state files */
+  private static final String                         STATE_FILE_EXTENSION = ".buildstate";
+
+  /** all loaded build states (project name -> build state) */
+  private static final Map<String, ProjectBuildState> BUILD_STATES         = new HashMap<String, ProjectBuildState>();
+
+  /** the project */
+  private IProject                                    _project;
+
+  /** source file -> generated files */
+  private GenericCache<IPath, List<IPath>>            _generatedFiles;
+
+  /** generated file -> source file */
+  private Map<IPath, IPath>                           _sourceFiles;
+
+  /** source file -> source files of the types the generated component descriptions depend on */
+  private Map<IPath, Set<IPath>>                      _dependencies;
+
+  /** source file -> source files that depend on it (reverse index of the dependencies, rebuilt when loaded) */
+  private GenericCache<IPath, Set<IPath>>             _dependentSourceFiles;
+
+  /** indicates that the dependency graph is complete */
+  private boolean                                     _dependencyGraphComplete;
+
+  /** source file -> content stamp of the analyzed source file */
+  private Map<IPath, ContentStamp>                    _contentStamps;
+
+  /** the environment the content stamps are valid for */
+  private String                                      _environmentStamp    = "";
+
+  /** file -> modification stamp of the files the builder has written or deleted (not saved) */
+  private Map<IPath, Long>                            _ownModifications;
+
+  /** indicates that the state has been changed since it has been saved the last time */
+  private boolean                                     _dirty;
+
+  /** indicates that the state has been loaded or rebuilt */
+  private volatile boolean                            _initialized;
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link ProjectBuildState}.
+   * </p>
+   * 
+   * @param project
+   */
+  private ProjectBuildState(IProject project) {
+    Assert.isNotNull(project);
+
+    //
+    _project = project;
+
+    //
+    _generatedFiles = new GenericCache<IPath, List<IPath>>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected List<IPath> create(IPath key) {
+        return new LinkedList<IPath>();
+      }
+    };
+
+    //
+    _sourceFiles = new HashMap<IPath, IPath>();
+    _dependencies = new HashMap<IPath, Set<IPath>>();
+    _dependentSourceFiles = new GenericCache<IPath, Set<IPath>>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected Set<IPath> create(IPath key) {
+        return new HashSet<IPath>();
+      }
+    };
+    _contentStamps = new HashMap<IPath, ContentStamp>();
+    _ownModifications = new HashMap<IPath, Long>();
+  }
+
+  /**
+   * <p>
+   * Returns the build state for the given project. If the build state has not been loaded yet, it is read from the
+   * plug-in state location or - if missing or corrupt - rebuilt from the component description folder. Loading and
+   * rebuilding happen outside of the class monitor (see {@link #initialize()}).
+   * </p>
+   * 
+   * @param project
+   *          the project
+   * @return the build state for the given project.
+   */
+  public static ProjectBuildState getBuildState(IProject project) {
+    Assert.isNotNull(project);
+
+    //
+    ProjectBuildState result;
+    synchronized (ProjectBuildState.class) {
+      result = BUILD_STATES.get(project.getName());
+      if (result == null) {
+        result = new ProjectBuildState(project);
+        BUILD_STATES.put(project.getName(), result);
+      }
+    }
+
+    //
+    result.initialize();
+    return result;
+  }
+
+  /**
+   * <p>
+   * Discards the build state of the given project (e.g. if the project has been deleted).
+   * </p>
+   * 
+   * @param project
+   *          the project
+   */
+  public static synchronized void discard(IProject project) {
+    Assert.isNotNull(project);
+
+    //
+    BUILD_STATES.remove(project.getName());
+
+    //
+    File stateFile = getStateFile(project);
+    if (stateFile != null && stateFile.exists()) {
+      stateFile.delete();
+    }
+  }
+
+  /**
+   * <p>
+   * Saves all changed build states.
+   * </p>
+   */
+  public static synchronized void saveAll() {
+    for (ProjectBuildState buildState : BUILD_STATES.values()) {
+      buildState.save();
+    }
+  }
+
+  /**
+   * <p>
+   * Saves the build state of the given project (if loaded and changed).
+   * </p>
+   * 
+   * @param project
+   *          the project
+   */
+  public static synchronized void save(IProject project) {
+
+    //
+    ProjectBuildState buildState = BUILD_STATES.get(project.getName());
+
+    //
+    if (buildState != null) {
+      buildState.save();
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the generated files for the given source file.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @return the generated files for the given source file (never <code>null</code>).
+   */
+  public synchronized List<IPath> getGeneratedFiles(IPath sourceFile) {
+
+    //
+    List<IPath> result = _generatedFiles.get(sourceFile);
+
+    //
+    return result != null ? new ArrayList<IPath>(result) : Collections.<IPath> emptyList();
+  }
+
+  /**
+   * <p>
+   * Returns a snapshot of the complete index (source file -> generated files).
+   * </p>
+   * 
+   * @return a snapshot of the complete index.
+   */
+  public synchronized Map<IPath, List<IPath>> getGeneratedFiles() {
+
+    //
+    Map<IPath, List<IPath>> result = new HashMap<IPath, List<IPath>>();
+    for (Map.Entry<IPath, List<IPath>> entry : _generatedFiles.entrySet()) {
+      result.put(entry.getKey(), new ArrayList<IPath>(entry.getValue()));
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns a snapshot of all generated files.
+   * </p>
+   * 
+   * @return a snapshot of all generated files.
+   */
+  public synchronized Set<IPath> getGeneratedFilePaths() {
+    return new HashSet<IPath>(_sourceFiles.keySet());
+  }
+
+  /**
+   * <p>
+   * Returns the source file of the given generated file.
+   * </p>
+   * 
+   * @param generatedFile
+   *          the project relative path of the generated file
+   * @return the project relative path of the source file or <code>null</code>.
+   */
+  public synchronized IPath getSourceFile(IPath generatedFile) {
+    return _sourceFiles.get(generatedFile);
+  }
+
+  /**
+   * <p>
+   * Records that the given file has been generated from the given source file.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @param generatedFile
+   *          the project relative path of the generated file
+   */
+  public synchronized void addGeneratedFile(IPath sourceFile, IPath generatedFile) {
+    Assert.isNotNull(sourceFile);
+    Assert.isNotNull(generatedFile);
+
+    //
+    IPath oldSourceFile = _sourceFiles.get(generatedFile);
+
+    //
+    if (sourceFile.equals(oldSourceFile)) {
+      return;
+    }
+
+    //
+    if (oldSourceFile != null) {
+      removeGeneratedFile(generatedFile);
+    }
+
+    //
+    _generatedFiles.getOrCreate(sourceFile).add(generatedFile);
+    _sourceFiles.put(generatedFile, sourceFile);
+    _dirty = true;
+  }
+
+  /**
+   * <p>
+   * Removes the given generated file from the index.
+   * </p>
+   * 
+   * @param generatedFile
+   *          the project relative path of the generated file
+   */
+  public synchronized void removeGeneratedFile(IPath generatedFile) {
+
+    //
+    IPath sourceFile = _sourceFiles.remove(generatedFile);
+
+    //
+    if (sourceFile != null) {
+
+      List<IPath> generatedFiles = _generatedFiles.get(sourceFile);
+      generatedFiles.remove(generatedFile);
+      if (generatedFiles.isEmpty()) {
+        _generatedFiles.remove(sourceFile);
+      }
+
+      //
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Removes the given source file (and all the files generated from it) from the index.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @return the files that had been generated from the source file.
+   */
+  public synchronized List<IPath> removeSourceFile(IPath sourceFile) {
+
+    //
+    if (removeDependencies(sourceFile) != null) {
+      _dirty = true;
+    }
+
+    //
+    removeContentStamp(sourceFile);
+
+    //
+    List<IPath> result = _generatedFiles.remove(sourceFile);
+
+    //
+    if (result == null) {
+      return Collections.emptyList();
+    }
+
+    //
+    for (IPath generatedFile : result) {
+      _sourceFiles.remove(generatedFile);
+    }
+
+    //
+    _dirty = true;
+    return result;
+  }
+
+  /**
+   * <p>
+   * Sets the source files the component descriptions generated from the given source file depend on.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @param dependencies
+   *          the project relative paths of the source files the given source file depends on
+   */
+  public synchronized void setDependencies(IPath sourceFile, Set<IPath> dependencies) {
+    Assert.isNotNull(sourceFile);
+
+    //
+    Set<IPath> oldDependencies = removeDependencies(sourceFile);
+    if (!dependencies.isEmpty()) {
+      putDependencies(sourceFile, new HashSet<IPath>(dependencies));
+    }
+
+    //
+    if (oldDependencies == null ? !dependencies.isEmpty() : !oldDependencies.equals(dependencies)) {
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns all source files that depend on the given source file (looked up in the reverse index).
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the (changed) source file
+   * @return the project relative paths of all source files that depend on the given source file.
+   */
+  public synchronized List<IPath> getDependentSourceFiles(IPath sourceFile) {
+
+    //
+    Set<IPath> dependentSourceFiles = _dependentSourceFiles.get(sourceFile);
+    return dependentSourceFiles != null ? new LinkedList<IPath>(dependentSourceFiles) : new LinkedList<IPath>();
+  }
+
+  /**
+   * <p>
+   * Adds the dependencies of the given source file to the dependencies and to the reverse index.
+   * </p>
+   * 
+   * @param sourceFile
+   * @param dependencies
+   */
+  private void putDependencies(IPath sourceFile, Set<IPath> dependencies) {
+
+    //
+    _dependencies.put(sourceFile, dependencies);
+
+    //
+    for (IPath dependency : dependencies) {
+      _dependentSourceFiles.getOrCreate(dependency).add(sourceFile);
+    }
+  }
+
+  /**
+   * <p>
+   * Removes the dependencies of the given source file from the dependencies and from the reverse index.
+   * </p>
+   * 
+   * @param sourceFile
+   * @return the removed dependencies or <code>null</code> if the given source file doesn't have any dependencies.
+   */
+  private Set<IPath> removeDependencies(IPath sourceFile) {
+
+    //
+    Set<IPath> result = _dependencies.remove(sourceFile);
+
+    //
+    if (result != null) {
+      for (IPath dependency : result) {
+        Set<IPath> dependentSourceFiles = _dependentSourceFiles.get(dependency);
+        if (dependentSourceFiles != null) {
+          dependentSourceFiles.remove(sourceFile);
+          if (dependentSourceFiles.isEmpty()) {
+            _dependentSourceFiles.remove(dependency);
+          }
+        }
+      }
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the dependency graph is complete, i.e. it has been computed by a full build (and has
+   * been maintained by incremental builds since).
+   * </p>
+   * 
+   * @return <code>true</code> if the dependency graph is complete.
+   */
+  public synchronized boolean isDependencyGraphComplete() {
+    return _dependencyGraphComplete;
+  }
+
+  /**
+   * <p>
+   * Marks the dependency graph as complete (called after a full build).
+   * </p>
+   */
+  public synchronized void setDependencyGraphComplete() {
+    if (!_dependencyGraphComplete) {
+      _dependencyGraphComplete = true;
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the content stamp of the given source file.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @return the content stamp of the given source file or <code>null</code> if the source file has not been analyzed
+   *         successfully.
+   */
+  public synchronized ContentStamp getContentStamp(IPath sourceFile) {
+    return _contentStamps.get(sourceFile);
+  }
+
+  /**
+   * <p>
+   * Sets the content stamp of the given (successfully analyzed) source file.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   * @param contentStamp
+   *          the content stamp
+   */
+  public synchronized void setContentStamp(IPath sourceFile, ContentStamp contentStamp) {
+    Assert.isNotNull(sourceFile);
+    Assert.isNotNull(contentStamp);
+
+    //
+    if (!contentStamp.equals(_contentStamps.put(sourceFile, contentStamp))) {
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Removes the content stamp of the given source file.
+   * </p>
+   * 
+   * @param sourceFile
+   *          the project relative path of the source file
+   */
+  public synchronized void removeContentStamp(IPath sourceFile) {
+    if (_contentStamps.remove(sourceFile) != null) {
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Discards all content stamps if they have been recorded for another environment (i.e. if the classpath or the
+   * plug-in version has been changed).
+   * </p>
+   * 
+   * @param environmentStamp
+   *          the stamp of the current environment
+   */
+  public synchronized void validateContentStamps(String environmentStamp) {
+    Assert.isNotNull(environmentStamp);
+
+    //
+    if (!environmentStamp.equals(_environmentStamp)) {
+      _contentStamps.clear();
+      _environmentStamp = environmentStamp;
+      _dirty = true;
+    }
+  }
+
+  /**
+   * <p>
+   * Records that the given file has been written or deleted by the builder. The modification stamp of the file is
+   * recorded, so that later modifications by someone else are not mistaken for the builder's own modifications.
+   * </p>
+   * 
+   * @param file
+   *          the written or deleted file
+   */
+  public synchronized void recordOwnModification(IFile file) {
+    _ownModifications.put(file.getProjectRelativePath(), file.getModificationStamp());
+  }
+
+  /**
+   * <p>
+   * Forgets all recorded own modifications.
+   * </p>
+   */
+  public synchronized void clearOwnModifications() {
+    _ownModifications.clear();
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the given resource delta only consists of modifications the builder has made itself
+   * (and marker changes). The current modification stamp of each changed file must match the recorded one.
+   * </p>
+   * 
+   * @param delta
+   *          the resource delta of the project
+   * @return <code>true</code> if the given delta only contains own modifications.
+   */
+  public synchronized boolean isOwnModification(IResourceDelta delta) {
+
+    //
+    if (_ownModifications.isEmpty()) {
+      return false;
+    }
+
+    //
+    final boolean[] result = { true };
+
+    try {
+
+      //
+      delta.accept(new IResourceDeltaVisitor() {
+        @Override
+        public boolean visit(IResourceDelta resourceDelta) throws CoreException {
+
+          //
+          IResource resource = resourceDelta.getResource();
+
+          // folders (and the project) are only relevant because of their children
+          if (!result[0] || resource.getType() != IResource.FILE) {
+            return result[0];
+          }
+
+          // marker changes don't require a build
+          if (resourceDelta.getKind() == IResourceDelta.CHANGED
+              && (resourceDelta.getFlags() & ~IResourceDelta.MARKERS) == 0) {
+            return false;
+          }
+
+          //
+          Long modificationStamp = _ownModifications.get(resource.getProjectRelativePath());
+          if (modificationStamp == null || modificationStamp.longValue() != resource.getModificationStamp()) {
+            result[0] = false;
+          }
+
+          //
+          return false;
+        }
+      });
+
+    } catch (CoreException e) {
+      return false;
+    }
+
+    //
+    return result[0];
+  }
+
+  /**
+   * <p>
+   * Rebuilds the index from the generated component descriptions in the component description folder. The dependency
+   * graph can not be restored and is incomplete afterwards.
+   * </p>
+   * <p>
+   * The component description folder is refreshed and the aggregated component descriptions are read before the
+   * monitor of this build state is acquired: refreshing acquires the workspace lock and notifies resource change
+   * listeners, which may access the build state themselves.
+   * </p>
+   */
+  public void rebuild() {
+    synchronizeComponentDescriptionFolder();
+    rebuild(getAggregatedSourceFiles());
+  }
+
+  /**
+   * <p>
+   * Loads or rebuilds this build state if this hasn't been done yet. No monitor is held while the component description
+   * folder is refreshed (see {@link #rebuild()}).
+   * </p>
+   */
+  private void initialize() {
+
+    //
+    if (_initialized) {
+      return;
+    }
+
+    //
+    synchronizeComponentDescriptionFolder();
+    Map<IPath, IPath> aggregatedSourceFiles = getAggregatedSourceFiles();
+
+    //
+    synchronized (this) {
+      if (!_initialized) {
+        if (!load()) {
+          rebuild(aggregatedSourceFiles);
+        }
+        _initialized = true;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Refreshes the component description folder if it has been modified outside of the workspace.
+   * </p>
+   */
+  private void synchronizeComponentDescriptionFolder() {
+    try {
+      ComponentDescriptionWriter.synchronizeComponentDescriptionFolder(_project);
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the source files of the component descriptions contained in the aggregated component descriptions file
+   * (path -> source file). The aggregate is read again from disc.
+   * </p>
+   * 
+   * @return the source files of the aggregated component descriptions, never <code>null</code>.
+   */
+  private Map<IPath, IPath> getAggregatedSourceFiles() {
+
+    //
+    if (!DsAnnotationPreferences.isAggregatedComponentDescriptionsEnabled(_project)
+        || !_project.getFile(ComponentDescriptionAggregate.AGGREGATE_PATH).exists()) {
+      return Collections.emptyMap();
+    }
+
+    //
+    try {
+      ComponentDescriptionAggregate.discard(_project);
+      return ComponentDescriptionAggregate.getAggregate(_project).getSourceFiles();
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+      return Collections.emptyMap();
+    }
+  }
+
+  /**
+   * <p>
+   * Rebuilds the index from the (already synchronized) component description folder.
+   * </p>
+   * 
+   * @param aggregatedSourceFiles
+   *          the source files of the aggregated component descriptions (path -> source file)
+   */
+  private synchronized void rebuild(Map<IPath, IPath> aggregatedSourceFiles) {
+
+    //
+    _generatedFiles.clear();
+    _sourceFiles.clear();
+    _dependencies.clear();
+    _dependentSourceFiles.clear();
+    _dependencyGraphComplete = false;
+    _contentStamps.clear();
+    _dirty = true;
+
+    //
+    IFolder folder = _project.getFolder(Constants.COMPONENT_DESCRIPTION_FOLDER);
+
+    try {
+
+      //
+      if (folder.exists()) {
+
+        //
+        for (IResource iResource : folder.members()) {
+
+          // the aggregated component descriptions file contains the component descriptions of many source files
+          if (ComponentDescriptionAggregate.isAggregate(iResource)) {
+            for (Map.Entry<IPath, IPath> entry : aggregatedSourceFiles.entrySet()) {
+              addGeneratedFile(entry.getValue(), entry.getKey());
+            }
+            continue;
+          }
+
+          //
+          if (iResource instanceof IFile && iResource.getName().endsWith(".xml")) {
+            String source = ComponentDescriptionWriter.extractSource((IFile) iResource);
+            if (source != null) {
+              addGeneratedFile(new Path(source), iResource.getProjectRelativePath());
+            }
+          }
+        }
+      }
+    } catch (CoreException e) {
+      Activator.log(e.getStatus());
+    }
+  }
+
+  /**
+   * <p>
+   * Loads the saved build state. Returns <code>false</code> if the state file is missing, corrupt or does not match
+   * the current workspace content.
+   * </p>
+   * 
+   * @return <code>true</code> if the build state has been loaded successfully.
+   */
+  private boolean load() {
+
+    //
+    File stateFile = getStateFile(_project);
+
+    //
+    if (stateFile == null || !stateFile.isFile()) {
+      return false;
+    }
+
+    try {
+
+      DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+
+      try {
+
+        //
+        if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+          return false;
+        }
+
+        //
+        int sourceFileCount = inputStream.readInt();
+        for (int i = 0; i < sourceFileCount; i++) {
+          IPath sourceFile = new Path(inputStream.readUTF());
+          int generatedFileCount = inputStream.readInt();
+          for (int j = 0; j < generatedFileCount; j++) {
+            IPath generatedFile = new Path(inputStream.readUTF());
+
+            // the saved state does not match the workspace (e.g. project has been replaced)
+            if (!_project.getFile(generatedFile).exists()) {
+              return false;
+            }
+
+            //
+            addGeneratedFile(sourceFile, generatedFile);
+          }
+        }
+
+        //
+        _dependencyGraphComplete = inputStream.readBoolean();
+        int dependentFileCount = inputStream.readInt();
+        for (int i = 0; i < dependentFileCount; i++) {
+          IPath sourceFile = new Path(inputStream.readUTF());
+          int dependencyCount = inputStream.readInt();
+          Set<IPath> dependencies = new HashSet<IPath>();
+          for (int j = 0; j < dependencyCount; j++) {
+            dependencies.add(new Path(inputStream.readUTF()));
+          }
+          putDependencies(sourceFile, dependencies);
+        }
+
+        //
+        _environmentStamp = inputStream.readUTF();
+        int contentStampCount = inputStream.readInt();
+        for (int i = 0; i < contentStampCount; i++) {
+          IPath sourceFile = new Path(inputStream.readUTF());
+          long modificationStamp = inputStream.readLong();
+          String contentHash = inputStream.readUTF();
+          _contentStamps.put(sourceFile, new ContentStamp(modificationStamp, contentHash.length() > 0 ? contentHash
+              : null));
+        }
+
+        //
+        _dirty = false;
+        return true;
+
+      } finally {
+        inputStream.close();
+      }
+
+    } catch (IOException e) {
+      return false;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * <p>
+   * Saves the build state if it has been changed.
+   * </p>
+   */
+  private synchronized void save() {
+
+    //
+    if (!_dirty) {
+      return;
+    }
+
+    //
+    File stateFile = getStateFile(_project);
+    if (stateFile == null) {
+      return;
+    }
+
+    try {
+
+      DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateFile)));
+
+      try {
+
+        //
+        outputStream.writeInt(MAGIC);
+        outputStream.writeInt(FORMAT_VERSION);
+
+        //
+        outputStream.writeInt(_generatedFiles.size());
+        for (Map.Entry<IPath, List<IPath>> entry : _generatedFiles.entrySet()) {
+          outputStream.writeUTF(entry.getKey().toPortableString());
+          outputStream.writeInt(entry.getValue().size());
+          for (IPath generatedFile : entry.getValue()) {
+            outputStream.writeUTF(generatedFile.toPortableString());
+          }
+        }
+
+        //
+        outputStream.writeBoolean(_dependencyGraphComplete);
+        outputStream.writeInt(_dependencies.size());
+        for (Map.Entry<IPath, Set<IPath>> entry : _dependencies.entrySet()) {
+          outputStream.writeUTF(entry.getKey().toPortableString());
+          outputStream.writeInt(entry.getValue().size());
+          for (IPath dependency : entry.getValue()) {
+            outputStream.writeUTF(dependency.toPortableString());
+          }
+        }
+
+        //
+        outputStream.writeUTF(_environmentStamp);
+        outputStream.writeInt(_contentStamps.size());
+        for (Map.Entry<IPath, ContentStamp> entry : _contentStamps.entrySet()) {
+          outputStream.writeUTF(entry.getKey().toPortableString());
+          outputStream.writeLong(entry.getValue().getModificationStamp());
+          outputStream.writeUTF(entry.getValue().getContentHash() != null ? entry.getValue().getContentHash() : "");
+        }
+
+        //
+        _dirty = false;
+
+      } finally {
+        outputStream.close();
+      }
+
+    } catch (IOException e) {
+      Activator.logError(String.format("Could not save the build state of project '%s'.", _project.getName()), e);
+      stateFile.delete();
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the state file for the given project.
+   * </p>
+   * 
+   * @param project
+   * @return the state file or <code>null</code> if the plug-in state location is not available.
+   */
+  private static File getStateFile(IProject project) {
+
+    //
+    if (Activator.getBundleContext() == null) {
+      return null;
+    }
+
+    //
+    IPath stateLocation = Platform.getStateLocation(Activator.getBundleContext().getBundle());
+    return stateLocation.append(project.getName() + STATE_FILE_EXTENSION).toFile();
+  }
+
+  /**
+   * <p>
+   * The content stamp of a source file: the modification stamp allows to detect unchanged files without reading them,
+   * the content hash detects files that have been written with identical content. The content hash is only known if the
+   * file has been read by an incremental build (full builds don't read the source files again).
+   * </p>
+   * 
+   * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+   */
+  public static class ContentStamp {
+
+    /** the modification stamp of the source file */
+    private long   _modificationStamp;
+
+    /** the hash of the content of the source file */
+    private String _contentHash;
+
+    /**
+     * <p>
+     * Creates a new instance of type {@link ContentStamp}.
+     * </p>
+     * 
+     * @param modificationStamp
+     * @param contentHash
+     *          the content hash or <code>null</code> if it is unknown
+     */
+    public ContentStamp(long modificationStamp, String contentHash) {
+      _modificationStamp = modificationStamp;
+      _contentHash = contentHash;
+    }
+
+    public long getModificationStamp() {
+      return _modificationStamp;
+    }
+
+    public String getContentHash() {
+      return _contentHash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return 31 * (int) (_modificationStamp ^ (_modificationStamp >>> 32))
+          + (_contentHash != null ? _contentHash.hashCode() : 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof ContentStamp)) {
+        return false;
+      }
+      ContentStamp other = (ContentStamp) obj;
+      return _modificationStamp == other._modificationStamp
+          && (_contentHash != null ? _contentHash.equals(other._contentHash) : other._contentHash == null);
+    }
+  }
+}
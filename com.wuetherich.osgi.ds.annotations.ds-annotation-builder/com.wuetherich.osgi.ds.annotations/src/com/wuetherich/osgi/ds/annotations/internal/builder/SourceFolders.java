@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.builder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.compiler.CharOperation;
+
+/**
+ * <p>
+ * The source folders of a java project (including their inclusion and exclusion patterns), stored in a prefix trie of
+ * project relative path segments. The {@link SourceFolders} are computed once per build from the raw classpath and
+ * allow to decide whether a resource is (or may contain) a java source file without accessing the java model.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class SourceFolders {
+
+  /** the root node of the trie (represents the project) */
+  private Node _root;
+
+  /**
+   * <p>
+   * Creates a new (empty) instance of type {@link SourceFolders}.
+   * </p>
+   */
+  public SourceFolders() {
+    _root = new Node();
+  }
+
+  /**
+   * <p>
+   * Creates the {@link SourceFolders} of the given java project from its raw classpath. Source folders of other
+   * projects are ignored.
+   * </p>
+   * 
+   * @param javaProject
+   *          the java project
+   * @return the source folders of the given project.
+   */
+  public static SourceFolders create(IJavaProject javaProject) {
+
+    //
+    SourceFolders result = new SourceFolders();
+
+    try {
+
+      //
+      for (IClasspathEntry classpathEntry : javaProject.getRawClasspath()) {
+        if (classpathEntry.getEntryKind() == IClasspathEntry.CPE_SOURCE
+            && javaProject.getPath().isPrefixOf(classpathEntry.getPath())) {
+          result.addSourceFolder(classpathEntry.getPath().removeFirstSegments(1),
+              classpathEntry.getInclusionPatterns(), classpathEntry.getExclusionPatterns());
+        }
+      }
+
+    } catch (JavaModelException e) {
+      // not a java project (anymore): no source folders
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Adds a source folder.
+   * </p>
+   * 
+   * @param path
+   *          the project relative path of the source folder
+   * @param inclusionPatterns
+   *          the inclusion patterns (relative to the source folder)
+   * @param exclusionPatterns
+   *          the exclusion patterns (relative to the source folder)
+   */
+  public void addSourceFolder(IPath path, IPath[] inclusionPatterns, IPath[] exclusionPatterns) {
+
+    //
+    Node node = _root;
+    for (String segment : path.segments()) {
+      Node child = node.getChildren().get(segment);
+      if (child == null) {
+        child = new Node();
+        node.getChildren().put(segment, child);
+      }
+      node = child;
+    }
+
+    //
+    node.setSourceFolder(toPatterns(inclusionPatterns), toPatterns(exclusionPatterns));
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the folder with the given path is a source folder, is located in a source folder or is
+   * a parent folder of a source folder. Folders for which this method returns <code>false</code> can not contain any
+   * source files and don't have to be visited.
+   * </p>
+   * 
+   * @param path
+   *          the project relative path of the folder
+   * @return <code>true</code> if the folder may contain source files.
+   */
+  public boolean mayContainSourceFiles(IPath path) {
+
+    //
+    Node node = _root;
+    for (String segment : path.segments()) {
+
+      // the folder is located in a source folder
+      if (node.isSourceFolder()) {
+        return true;
+      }
+
+      //
+      node = node.getChildren().get(segment);
+      if (node == null) {
+        return false;
+      }
+    }
+
+    // the folder is a source folder or a parent of a source folder
+    return true;
+  }
+
+  /**
+   * <p>
+   * Returns <code>true</code> if the file with the given path is located in a source folder and is not excluded from
+   * it. For nested source folders the innermost source folder is used.
+   * </p>
+   * 
+   * @param path
+   *          the project relative path of the file
+   * @return <code>true</code> if the file is a source file.
+   */
+  public boolean isSourceFile(IPath path) {
+
+    //
+    String[] segments = path.segments();
+
+    // find the innermost source folder
+    Node sourceFolder = null;
+    int sourceFolderDepth = -1;
+    Node node = _root;
+    for (int i = 0; i < segments.length && node != null; i++) {
+      if (node.isSourceFolder()) {
+        sourceFolder = node;
+        sourceFolderDepth = i;
+      }
+      node = node.getChildren().get(segments[i]);
+    }
+
+    //
+    if (sourceFolder == null) {
+      return false;
+    }
+
+    //
+    char[] relativePath = path.removeFirstSegments(sourceFolderDepth).toString().toCharArray();
+    return sourceFolder.isIncluded(relativePath);
+  }
+
+  /**
+   * <p>
+   * Converts the given patterns as JDT does: a trailing slash matches all files in the folder.
+   * </p>
+   * 
+   * @param patterns
+   * @return the converted patterns
+   */
+  private static char[][] toPatterns(IPath[] patterns) {
+
+    //
+    if (patterns == null) {
+      return new char[0][];
+    }
+
+    //
+    char[][] result = new char[patterns.length][];
+    for (int i = 0; i < patterns.length; i++) {
+      String pattern = patterns[i].toString();
+      if (pattern.endsWith("/")) {
+        pattern = pattern + "**";
+      }
+      result[i] = pattern.toCharArray();
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * A node of the trie.
+   * </p>
+   * 
+   * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+   */
+  private static class Node {
+
+    /** the child nodes (segment -> node) */
+    private Map<String, Node> _children = new HashMap<String, Node>();
+
+    /** indicates that the node represents a source folder */
+    private boolean           _sourceFolder;
+
+    /** the inclusion patterns of the source folder */
+    private char[][]          _inclusionPatterns;
+
+    /** the exclusion patterns of the source folder */
+    private char[][]          _exclusionPatterns;
+
+    public Map<String, Node> getChildren() {
+      return _children;
+    }
+
+    public boolean isSourceFolder() {
+      return _sourceFolder;
+    }
+
+    public void setSourceFolder(char[][] inclusionPatterns, char[][] exclusionPatterns) {
+      _sourceFolder = true;
+      _inclusionPatterns = inclusionPatterns;
+      _exclusionPatterns = exclusionPatterns;
+    }
+
+    /**
+     * <p>
+     * Returns <code>true</code> if the given path (relative to this source folder) is included.
+     * </p>
+     * 
+     * @param relativePath
+     * @return <code>true</code> if the given path is included.
+     */
+    public boolean isIncluded(char[] relativePath) {
+
+      //
+      if (_inclusionPatterns.length > 0) {
+        boolean included = false;
+        for (char[] pattern : _inclusionPatterns) {
+          if (CharOperation.pathMatch(pattern, relativePath, true, '/')) {
+            included = true;
+            break;
+          }
+        }
+        if (!included) {
+          return false;
+        }
+      }
+
+      //
+      for (char[] pattern : _exclusionPatterns) {
+        if (CharOperation.pathMatch(pattern, relativePath, true, '/')) {
+          return false;
+        }
+      }
+
+      //
+      return true;
+    }
+  }
+}
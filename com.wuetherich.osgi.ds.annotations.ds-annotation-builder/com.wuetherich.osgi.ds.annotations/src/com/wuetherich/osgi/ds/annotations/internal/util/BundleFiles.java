@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * Helper class that reads and edits list valued manifest headers (e.g. <code>Service-Component</code>) and list valued
+ * build properties (e.g. <code>bin.includes</code>) directly in the text of the manifest or the build properties. Only
+ * the lines of the edited header or property are replaced, all other characters (including line delimiters, comments,
+ * empty headers and the order of the entries) are preserved. If the new value equals the current value, the given
+ * text is returned unchanged (i.e. the same instance).
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class BundleFiles {
+
+  /** the maximum length of a manifest line (in bytes, without the line delimiter) */
+  private static final int     MAX_MANIFEST_LINE_LENGTH = 72;
+
+  /** the charset of manifests */
+  private static final Charset UTF_8                    = Charset.forName("UTF-8");
+
+  /**
+   * <p>
+   * Returns the (comma separated) values of the given header in the main section of the given manifest.
+   * </p>
+   * 
+   * @param manifest
+   *          the text of the manifest
+   * @param name
+   *          the name of the header (case insensitive)
+   * @return the values of the header or <code>null</code> if the manifest doesn't contain the header.
+   */
+  public static List<String> getManifestHeader(String manifest, String name) {
+
+    //
+    int[] range = findManifestHeader(manifest, name);
+    if (range == null) {
+      return null;
+    }
+
+    // unfold the continuation lines
+    StringBuilder value = new StringBuilder();
+    for (int[] line : getLines(manifest, range[0], range[1])) {
+      if (line[0] == range[0]) {
+        value.append(manifest.substring(line[0] + name.length() + 1, line[1]).trim());
+      } else {
+        value.append(manifest.substring(line[0] + 1, line[1]));
+      }
+    }
+
+    //
+    return split(value.toString());
+  }
+
+  /**
+   * <p>
+   * Sets the values of the given header in the main section of the given manifest. An existing header is replaced in
+   * place, a new header is appended to the main section. If the values are empty, the header is removed.
+   * </p>
+   * 
+   * @param manifest
+   *          the text of the manifest
+   * @param name
+   *          the name of the header
+   * @param values
+   *          the values of the header
+   * @return the new text of the manifest (the given instance if nothing has changed).
+   */
+  public static String setManifestHeader(String manifest, String name, List<String> values) {
+
+    //
+    List<String> currentValues = getManifestHeader(manifest, name);
+    if (values.isEmpty() ? currentValues == null : values.equals(currentValues)) {
+      return manifest;
+    }
+
+    //
+    String lineDelimiter = getLineDelimiter(manifest);
+    String header = values.isEmpty() ? "" : formatManifestHeader(name, values, lineDelimiter);
+
+    // replace the existing header
+    int[] range = findManifestHeader(manifest, name);
+    if (range != null) {
+      return manifest.substring(0, range[0]) + header + manifest.substring(range[1]);
+    }
+
+    // append the header to the main section
+    int offset = manifest.length();
+    for (int[] line : getLines(manifest, 0, manifest.length())) {
+      if (line[0] == line[1]) {
+        offset = line[0];
+        break;
+      }
+    }
+    String prefix = offset > 0 && !endsWithLineDelimiter(manifest, offset) ? lineDelimiter : "";
+    return manifest.substring(0, offset) + prefix + header + manifest.substring(offset);
+  }
+
+  /**
+   * <p>
+   * Returns the (comma separated) values of the given property in the given build properties.
+   * </p>
+   * 
+   * @param buildProperties
+   *          the text of the build properties
+   * @param key
+   *          the key of the property
+   * @return the values of the property or <code>null</code> if the build properties don't contain the property.
+   */
+  public static List<String> getBuildProperty(String buildProperties, String key) {
+
+    //
+    int[] range = findBuildProperty(buildProperties, key);
+    if (range == null) {
+      return null;
+    }
+
+    // join the continuation lines
+    StringBuilder value = new StringBuilder();
+    for (int[] line : getLines(buildProperties, range[0], range[1])) {
+      String content = buildProperties.substring(line[0], line[1]);
+      if (line[0] == range[0]) {
+        content = content.trim().substring(key.length());
+        content = content.trim();
+        if (content.startsWith("=") || content.startsWith(":")) {
+          content = content.substring(1);
+        }
+      }
+      content = content.trim();
+      if (content.endsWith("\\")) {
+        content = content.substring(0, content.length() - 1);
+      }
+      value.append(content);
+    }
+
+    //
+    return split(value.toString());
+  }
+
+  /**
+   * <p>
+   * Sets the values of the given property in the given build properties. An existing property is replaced in place, a
+   * new property is appended. If the values are empty, the property is removed.
+   * </p>
+   * 
+   * @param buildProperties
+   *          the text of the build properties
+   * @param key
+   *          the key of the property
+   * @param values
+   *          the values of the property
+   * @return the new text of the build properties (the given instance if nothing has changed).
+   */
+  public static String setBuildProperty(String buildProperties, String key, List<String> values) {
+
+    //
+    List<String> currentValues = getBuildProperty(buildProperties, key);
+    if (values.isEmpty() ? currentValues == null : values.equals(currentValues)) {
+      return buildProperties;
+    }
+
+    //
+    String lineDelimiter = getLineDelimiter(buildProperties);
+    String property = values.isEmpty() ? "" : formatBuildProperty(key, values, lineDelimiter);
+
+    // replace the existing property
+    int[] range = findBuildProperty(buildProperties, key);
+    if (range != null) {
+      return buildProperties.substring(0, range[0]) + property + buildProperties.substring(range[1]);
+    }
+
+    // append the property
+    String prefix = buildProperties.length() > 0 && !endsWithLineDelimiter(buildProperties, buildProperties.length())
+        ? lineDelimiter : "";
+    return buildProperties + prefix + property;
+  }
+
+  /**
+   * <p>
+   * Returns the range (start offset inclusive, end offset exclusive, including the line delimiter of the last line) of
+   * the given header in the main section of the given manifest.
+   * </p>
+   * 
+   * @param manifest
+   * @param name
+   * @return the range of the header or <code>null</code>.
+   */
+  private static int[] findManifestHeader(String manifest, String name) {
+
+    //
+    int[] result = null;
+
+    //
+    for (int[] line : getLines(manifest, 0, manifest.length())) {
+
+      // the main section ends with the first empty line
+      if (line[0] == line[1]) {
+        break;
+      }
+
+      // continuation line
+      if (manifest.charAt(line[0]) == ' ') {
+        if (result != null) {
+          result[1] = line[2];
+        }
+        continue;
+      }
+
+      //
+      if (result != null) {
+        break;
+      }
+
+      //
+      if (manifest.regionMatches(true, line[0], name + ":", 0, name.length() + 1)) {
+        result = new int[] { line[0], line[2] };
+      }
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns the range (start offset inclusive, end offset exclusive, including the line delimiter of the last line) of
+   * the given property in the given build properties.
+   * </p>
+   * 
+   * @param buildProperties
+   * @param key
+   * @return the range of the property or <code>null</code>.
+   */
+  private static int[] findBuildProperty(String buildProperties, String key) {
+
+    //
+    int[] result = null;
+    boolean continuation = false;
+
+    //
+    for (int[] line : getLines(buildProperties, 0, buildProperties.length())) {
+
+      //
+      String content = buildProperties.substring(line[0], line[1]);
+      String trimmed = content.trim();
+
+      //
+      if (continuation) {
+        if (result != null) {
+          result[1] = line[2];
+        }
+      } else if (result != null) {
+        break;
+      } else if (!trimmed.isEmpty() && !trimmed.startsWith("#") && !trimmed.startsWith("!")
+          && trimmed.startsWith(key) && isKeyEnd(trimmed, key.length())) {
+        result = new int[] { line[0], line[2] };
+      }
+
+      // comments can not be continued
+      continuation = !trimmed.startsWith("#") && !trimmed.startsWith("!") && endsWithOddBackslashes(content);
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Formats the given manifest header. Lines that are longer than 72 bytes are wrapped.
+   * </p>
+   * 
+   * @param name
+   * @param values
+   * @param lineDelimiter
+   * @return the formatted header (including the trailing line delimiter).
+   */
+  private static String formatManifestHeader(String name, List<String> values, String lineDelimiter) {
+
+    //
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      String line = (i == 0 ? name + ": " : " ") + values.get(i) + (i < values.size() - 1 ? "," : "");
+      while (utf8Length(line) > MAX_MANIFEST_LINE_LENGTH) {
+        int split = getSplitIndex(line);
+        result.append(line.substring(0, split)).append(lineDelimiter);
+        line = " " + line.substring(split);
+      }
+      result.append(line).append(lineDelimiter);
+    }
+
+    //
+    return result.toString();
+  }
+
+  /**
+   * <p>
+   * Formats the given build property the same way PDE does.
+   * </p>
+   * 
+   * @param key
+   * @param values
+   * @param lineDelimiter
+   * @return the formatted property (including the trailing line delimiter).
+   */
+  private static String formatBuildProperty(String key, List<String> values, String lineDelimiter) {
+
+    //
+    String prefix = key + " = ";
+    String indent = prefix.replaceAll(".", " ");
+
+    //
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      result.append(i == 0 ? prefix : indent).append(values.get(i));
+      result.append(i < values.size() - 1 ? ",\\" : "").append(lineDelimiter);
+    }
+
+    //
+    return result.toString();
+  }
+
+  /**
+   * <p>
+   * Returns the lines in the given range of the given text. Each line is represented as an array of three offsets:
+   * the start of the line, the end of the line content and the end of the line (including the line delimiter).
+   * </p>
+   * 
+   * @param text
+   * @param start
+   * @param end
+   * @return the lines in the given range.
+   */
+  private static List<int[]> getLines(String text, int start, int end) {
+
+    //
+    List<int[]> result = new ArrayList<int[]>();
+    int lineStart = start;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      if (c == '\r' || c == '\n') {
+        int lineEnd = (c == '\r' && i + 1 < end && text.charAt(i + 1) == '\n') ? i + 2 : i + 1;
+        result.add(new int[] { lineStart, i, lineEnd });
+        lineStart = lineEnd;
+        i = lineEnd - 1;
+      }
+    }
+    if (lineStart < end) {
+      result.add(new int[] { lineStart, end, end });
+    }
+
+    //
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns the first line delimiter of the given text (or <code>\n</code> if the text doesn't contain any).
+   * </p>
+   * 
+   * @param text
+   * @return the line delimiter of the given text.
+   */
+  private static String getLineDelimiter(String text) {
+
+    //
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') {
+        return "\n";
+      } else if (text.charAt(i) == '\r') {
+        return i + 1 < text.length() && text.charAt(i + 1) == '\n' ? "\r\n" : "\r";
+      }
+    }
+
+    //
+    return "\n";
+  }
+
+  /**
+   * <p>
+   * Splits the given comma separated value.
+   * </p>
+   * 
+   * @param value
+   * @return the (trimmed, non-empty) values.
+   */
+  private static List<String> split(String value) {
+
+    //
+    if (value.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    //
+    List<String> result = new ArrayList<String>();
+    for (String element : value.split(",")) {
+      if (!element.trim().isEmpty()) {
+        result.add(element.trim());
+      }
+    }
+
+    //
+    return result;
+  }
+
+  private static boolean endsWithLineDelimiter(String text, int offset) {
+    char c = text.charAt(offset - 1);
+    return c == '\n' || c == '\r';
+  }
+
+  private static boolean endsWithOddBackslashes(String content) {
+    int count = 0;
+    for (int i = content.length() - 1; i >= 0 && content.charAt(i) == '\\'; i--) {
+      count++;
+    }
+    return count % 2 == 1;
+  }
+
+  private static boolean isKeyEnd(String trimmed, int index) {
+    if (index == trimmed.length()) {
+      return true;
+    }
+    char c = trimmed.charAt(index);
+    return c == '=' || c == ':' || Character.isWhitespace(c);
+  }
+
+  /**
+   * <p>
+   * Returns the index at which the given line has to be split so that the first part is at most 72 bytes long.
+   * Surrogate pairs are not split.
+   * </p>
+   * 
+   * @param line
+   * @return the split index.
+   */
+  private static int getSplitIndex(String line) {
+
+    //
+    int length = 0;
+    int i = 0;
+    while (i < line.length()) {
+      int charCount = Character.isHighSurrogate(line.charAt(i)) && i + 1 < line.length() ? 2 : 1;
+      int byteCount = utf8Length(line.substring(i, i + charCount));
+      if (length + byteCount > MAX_MANIFEST_LINE_LENGTH) {
+        break;
+      }
+      length += byteCount;
+      i += charCount;
+    }
+
+    //
+    return i;
+  }
+
+  private static int utf8Length(String text) {
+    return text.getBytes(UTF_8).length;
+  }
+}
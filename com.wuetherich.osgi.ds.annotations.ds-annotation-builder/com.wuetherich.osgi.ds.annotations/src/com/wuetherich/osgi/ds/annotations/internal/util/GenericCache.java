@@ -10,14 +10,14 @@
  ******************************************************************************/
 package com.wuetherich.osgi.ds.annotations.internal.util;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.eclipse.core.runtime.Assert;
 
 /**
  * <p>
- * Helper class.
+ * Helper class. The entries are kept in insertion order, so iterating a {@link GenericCache} is deterministic.
  * </p>
  * 
  * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
@@ -25,7 +25,7 @@ import org.eclipse.core.runtime.Assert;
  * @param <K>
  * @param <V>
  */
-public abstract class GenericCache<K, V> extends HashMap<K, V> {
+public abstract class GenericCache<K, V> extends LinkedHashMap<K, V> {
 
   /** - */
   private static final long serialVersionUID = 1L;
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2011-2013 Gerd W&uuml;therich (gerd@gerd-wuetherich.de).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Gerd W&uuml;therich (gerd@gerd-wuetherich.de) - initial API and implementation
+ ******************************************************************************/
+package com.wuetherich.osgi.ds.annotations.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A {@link ByteArrayOutputStream} that is reused by the current thread (see {@link #get()}), so that serializing a
+ * component description doesn't grow (and copy) a new buffer each time. The content can be handed to the workspace as a
+ * bounded {@link InputStream} without copying it (see {@link #toInputStream()}).
+ * </p>
+ * <p>
+ * The stream must not be used after the next call of {@link #get()} on the same thread.
+ * </p>
+ * 
+ * @author Gerd W&uuml;therich (gerd@gerd-wuetherich.de)
+ */
+public class PooledByteArrayOutputStream extends ByteArrayOutputStream {
+
+  /** the initial capacity of the buffer */
+  private static final int                                       INITIAL_CAPACITY = 8 * 1024;
+
+  /** buffers that have grown beyond this capacity are not kept */
+  private static final int                                       MAX_CAPACITY     = 1024 * 1024;
+
+  /** the stream of the current thread */
+  private static final ThreadLocal<PooledByteArrayOutputStream> STREAM           = new ThreadLocal<PooledByteArrayOutputStream>();
+
+  /**
+   * <p>
+   * Creates a new instance of type {@link PooledByteArrayOutputStream}.
+   * </p>
+   */
+  private PooledByteArrayOutputStream() {
+    super(INITIAL_CAPACITY);
+  }
+
+  /**
+   * <p>
+   * Returns the (empty) stream of the current thread.
+   * </p>
+   * 
+   * @return the stream of the current thread.
+   */
+  public static PooledByteArrayOutputStream get() {
+
+    //
+    PooledByteArrayOutputStream result = STREAM.get();
+
+    //
+    if (result == null || result.buf.length > MAX_CAPACITY) {
+      result = new PooledByteArrayOutputStream();
+      STREAM.set(result);
+    }
+
+    //
+    result.reset();
+    return result;
+  }
+
+  /**
+   * <p>
+   * Returns a bounded input stream that reads the content of this stream (the buffer is not copied).
+   * </p>
+   * 
+   * @return a bounded input stream that reads the content of this stream.
+   */
+  public InputStream toInputStream() {
+    return new ByteArrayInputStream(buf, 0, count);
+  }
+
+  /**
+   * <p>
+   * Reads the given input stream completely into this stream. The input stream is closed afterwards.
+   * </p>
+   * 
+   * @param inputStream
+   *          the input stream
+   * @throws IOException
+   */
+  public void readFrom(InputStream inputStream) throws IOException {
+
+    try {
+
+      //
+      int read;
+      do {
+        if (count == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        read = inputStream.read(buf, count, buf.length - count);
+        if (read > 0) {
+          count += read;
+        }
+      } while (read != -1);
+
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * <p>
+   * Returns the index of the first occurrence of the given (ASCII) pattern in the content of this stream, starting at
+   * the given index.
+   * </p>
+   * 
+   * @param pattern
+   * @param fromIndex
+   * @return the index of the first occurrence or <code>-1</code>.
+   */
+  public int indexOf(byte[] pattern, int fromIndex) {
+
+    //
+    outer: for (int i = Math.max(fromIndex, 0); i <= count - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (buf[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+
+    //
+    return -1;
+  }
+
+  /**
+   * <p>
+   * Returns a copy of the given range of the content of this stream.
+   * </p>
+   * 
+   * @param from
+   * @param to
+   * @return a copy of the given range.
+   */
+  public byte[] copyOfRange(int from, int to) {
+    return Arrays.copyOfRange(buf, from, to);
+  }
+}